@@ -0,0 +1,126 @@
+package org.example.benchmarks;
+
+import org.example.Book;
+import org.example.HibernateUtil;
+import org.example.JdbcUtil;
+import org.example.User;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+// Seed data of the benchmarks, generated in the database with generate_series. Its rows
+// are told apart by their keys (users BEN<n>, books 000<n padded to 10>, lends in the
+// years FIRST_YEAR to FIRST_YEAR + YEARS - 1), so it can live next to other data. If the
+// users, the books and the lends of every user already in place are the ones asked for,
+// nothing is regenerated. Lends the benchmarks make themselves fall outside those years:
+// they are not counted as seed and removeBenchmarkLends() drops them
+final class BenchmarkData {
+    static final int FIRST_YEAR = 1950;
+    static final int YEARS = 10;
+    // Right after the seed years. Its lends are made for the reassignment benchmark alone
+    static final int REASSIGN_YEAR = FIRST_YEAR + YEARS;
+    private static final String SEED_LENDS =
+            "usuario LIKE 'BEN%' AND fechaprestamo >= DATE '" + FIRST_YEAR + "-01-01' " +
+            "AND fechaprestamo < DATE '" + (FIRST_YEAR + YEARS) + "-01-01'";
+    // Never runs out, however many lends a run makes
+    static final int COPIES = 1_000_000_000;
+
+    private BenchmarkData() {}
+
+    static String userCode(int n) {
+        return "BEN" + n;
+    }
+
+    static String isbn(int n) {
+        return "000" + String.format("%010d", n);
+    }
+
+    static void ensureSeeded(int users, int books, int lends) throws SQLException {
+        if (users > 99_999) {
+            throw new IllegalArgumentException("User codes allow at most 99999 users");
+        }
+        try (Connection connection = HibernateUtil.getDataSource().getConnection()) {
+            connection.setAutoCommit(false);
+            if (JdbcUtil.count(connection, "SELECT COUNT(*) FROM usuarios WHERE codigo LIKE 'BEN%'") == users
+                    && JdbcUtil.count(connection, "SELECT COUNT(*) FROM libros WHERE isbn LIKE '000%'") == books
+                    && JdbcUtil.count(connection, usersWithOtherLends(users, lends)) == 0) {
+                return;
+            }
+            System.out.printf("Seeding %d users, %d books and %d lends...%n", users, books, lends);
+            JdbcUtil.execute(connection, "DELETE FROM prestamos WHERE usuario LIKE 'BEN%' OR libro LIKE '000%'");
+            JdbcUtil.execute(connection, "DELETE FROM usuarios WHERE codigo LIKE 'BEN%'");
+            JdbcUtil.execute(connection, "DELETE FROM libros WHERE isbn LIKE '000%'");
+
+            JdbcUtil.execute(connection,
+                    "INSERT INTO usuarios (codigo, nombre, apellidos, fechanacimiento) " +
+                    "SELECT 'BEN' || g, 'Bench', 'User', DATE '1980-01-01' + g % 7000 " +
+                    "FROM generate_series(1, " + users + ") g");
+            JdbcUtil.execute(connection,
+                    "INSERT INTO libros (isbn, titulo, copias, ejemplares, editorial) " +
+                    "SELECT '000' || lpad(g::text, 10, '0'), 'Bench Book', " + COPIES + ", " + COPIES + ", 'Bench' " +
+                    "FROM generate_series(1, " + books + ") g");
+
+            // A range of ids taken at once. The benchmark database has no other writers, so
+            // moving the sequence past the range afterwards is safe
+            long firstId = JdbcUtil.count(connection, "SELECT nextval('prestamos_id_seq')");
+            JdbcUtil.execute(connection,
+                    "INSERT INTO prestamos (id, fechaprestamo, fechadevolucion, libro, usuario) " +
+                    "SELECT " + firstId + " + g - 1, d, d + 14, " +
+                        "'000' || lpad((1 + g % " + books + ")::text, 10, '0'), " +
+                        seedUser("g", users) + " " +
+                    "FROM generate_series(1, " + lends + ") g, " +
+                    "LATERAL (SELECT DATE '" + FIRST_YEAR + "-01-01' + (g % (" + YEARS + " * 365)) AS d) dates");
+            try (PreparedStatement statement = connection.prepareStatement("SELECT setval('prestamos_id_seq', ?)")) {
+                statement.setLong(1, firstId + lends);
+                statement.execute();
+            }
+            JdbcUtil.execute(connection, "ANALYZE usuarios");
+            JdbcUtil.execute(connection, "ANALYZE libros");
+            JdbcUtil.execute(connection, "ANALYZE prestamos");
+            connection.commit();
+        }
+        // A reseed replaces users and books a previous trial may have cached
+        HibernateUtil.evictAfterPlainSql(User.class, Book.class);
+    }
+
+    // User of the seed lend number g
+    private static String seedUser(String g, int users) {
+        return "'BEN' || (1 + (" + g + "::bigint * 7919) % " + users + ")";
+    }
+
+    // Benchmark users whose seed lends are not as generated: the same users, lends each.
+    // A row count alone would miss lends moved from one user to another
+    private static String usersWithOtherLends(int users, int lends) {
+        return "SELECT COUNT(*) FROM (" +
+                    "SELECT " + seedUser("g", users) + " AS usuario, COUNT(*) AS lends " +
+                    "FROM generate_series(1, " + lends + ") g GROUP BY 1) expected " +
+                "FULL JOIN (" +
+                    "SELECT usuario, COUNT(*) AS lends FROM prestamos WHERE " + SEED_LENDS + " " +
+                    "GROUP BY usuario) actual USING (usuario) " +
+                "WHERE expected.lends IS DISTINCT FROM actual.lends";
+    }
+
+    // Lends of REASSIGN_YEAR spread over the users like the seed ones. They are not seed,
+    // so the benchmark can move them around and removeBenchmarkLends() drops them
+    static void addReassignableLends(int users, int books, int lends) throws SQLException {
+        try (Connection connection = HibernateUtil.getDataSource().getConnection()) {
+            JdbcUtil.execute(connection,
+                    "INSERT INTO prestamos (id, fechaprestamo, fechadevolucion, libro, usuario) " +
+                    "SELECT nextval('prestamos_id_seq'), d, d + 14, " +
+                        "'000' || lpad((1 + g % " + books + ")::text, 10, '0'), " +
+                        seedUser("g", users) + " " +
+                    "FROM generate_series(1, " + lends + ") g, " +
+                    "LATERAL (SELECT DATE '" + REASSIGN_YEAR + "-01-01' + (g % 365) AS d) dates");
+        }
+        HibernateUtil.evictAfterPlainSql();
+    }
+
+    // Everything of the benchmark users that is not seed
+    static void removeBenchmarkLends() throws SQLException {
+        try (Connection connection = HibernateUtil.getDataSource().getConnection()) {
+            JdbcUtil.execute(connection, "DELETE FROM prestamos WHERE usuario LIKE 'BEN%' AND NOT (" + SEED_LENDS + ")");
+        }
+        HibernateUtil.evictAfterPlainSql();
+    }
+}
@@ -0,0 +1,138 @@
+package org.example.benchmarks;
+
+import org.example.HibernateUtil;
+import org.example.LendView;
+import org.example.LibraryService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// The queries and writes behind the menu, through the real LibraryService (same named
+// queries, pool, cache and transaction handling as the application), on seeded data:
+//
+//   -p users=10000 -p books=5000 -p lends=1000000   volumes (see BenchmarkData)
+//   -p secondLevelCache=true|false                    lookups from the cache or the database
+//   -t 8                                              concurrent callers
+//
+// Sample time mode, so every result comes with its p50/p99/p999
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+public class PersistenceBenchmarks {
+    @Param("10000")
+    int users;
+
+    @Param("5000")
+    int books;
+
+    @Param("1000000")
+    int lends;
+
+    @Param({"true", "false"})
+    String secondLevelCache;
+
+    private LibraryService libraryService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // Every fork is a new JVM, so these are read when the SessionFactory is built
+        System.setProperty("hibernate.cache.use_second_level_cache", secondLevelCache);
+        System.setProperty("hibernate.cache.use_query_cache", secondLevelCache);
+        BenchmarkData.ensureSeeded(users, books, lends);
+        libraryService = new LibraryService();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        try {
+            BenchmarkData.removeBenchmarkLends();
+        } finally {
+            HibernateUtil.closeSessionFactory();
+        }
+    }
+
+    private String randomUser() {
+        return BenchmarkData.userCode(1 + ThreadLocalRandom.current().nextInt(users));
+    }
+
+    private String randomBook() {
+        return BenchmarkData.isbn(1 + ThreadLocalRandom.current().nextInt(books));
+    }
+
+    private int randomYear() {
+        return BenchmarkData.FIRST_YEAR + ThreadLocalRandom.current().nextInt(BenchmarkData.YEARS);
+    }
+
+    // Lookups by key
+    @Benchmark
+    public Object findUser() throws Exception {
+        return libraryService.findUser(randomUser());
+    }
+
+    @Benchmark
+    public Object findBook() throws Exception {
+        return libraryService.findBook(randomBook());
+    }
+
+    // Both lookups plus the open-lend count of the user for the book
+    @Benchmark
+    public boolean isBookAvailable() throws Exception {
+        return libraryService.isBookAvailable(randomUser(), randomBook());
+    }
+
+    // About lends / YEARS rows each
+    @Benchmark
+    public long lendsByYear(Blackhole blackhole) throws Exception {
+        return libraryService.streamLendsByYear(randomYear(), blackhole::consume);
+    }
+
+    @Benchmark
+    public long openLendsByUser(Blackhole blackhole) throws Exception {
+        return libraryService.streamOpenLendsByUser(randomUser(), blackhole::consume);
+    }
+
+    // Lookups, possession check, stock decrement and insert in one transaction. The lend
+    // is already returned, so the same user can take the same book again
+    @Benchmark
+    public LendView lend() throws Exception {
+        LocalDate lendDate = LocalDate.of(2000, 1, 1);
+        return libraryService.lend(randomUser(), randomBook(), lendDate, lendDate.plusDays(14));
+    }
+
+    // Every lend of a year to one user, in a single UPDATE. Works on lends of its own, as
+    // many as a seed year has: moving the seed ones would skew the data of every later run
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int reassignLendsOfYear(ReassignableLends reassignable) throws Exception {
+        return libraryService.reassignLendsOfYear(BenchmarkData.REASSIGN_YEAR, randomUser());
+    }
+
+    // Made after the seed is in place, for the trials of reassignLendsOfYear only. The trial
+    // teardown removes them with the other lends the benchmarks made
+    @State(Scope.Benchmark)
+    public static class ReassignableLends {
+        @Setup(Level.Trial)
+        public void addLends(PersistenceBenchmarks benchmarks) throws Exception {
+            BenchmarkData.addReassignableLends(benchmarks.users, benchmarks.books, benchmarks.lends / BenchmarkData.YEARS);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+#!/bin/sh
+# Starts the program built by "mvn -Pcds package", with the class-data archive of the
+# training run when there is one. Arguments are passed to Main (none: interactive menu).
+#
+#   scripts/library.sh [command [args...]]
+#   LIBRARY_CDS=off scripts/library.sh ...   same, without the archive
+
+TARGET="$(cd "$(dirname "$0")/.." && pwd)/target"
+# Must be the same class path the archive was dumped with (see the cds profile in pom.xml)
+CLASSPATH="$TARGET/library.jar:$TARGET/lib/*"
+
+if [ -f "$TARGET/library.jsa" ] && [ "$LIBRARY_CDS" != "off" ]; then
+    exec java -XX:SharedArchiveFile="$TARGET/library.jsa" $JAVA_OPTS -cp "$CLASSPATH" org.example.Main "$@"
+fi
+exec java $JAVA_OPTS -cp "$CLASSPATH" org.example.Main "$@"
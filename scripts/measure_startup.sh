@@ -0,0 +1,33 @@
+#!/bin/sh
+# Startup time with and without the AppCDS archive, several runs each way:
+#   - the "startup" command: boot the SessionFactory, open a session, print the JVM uptime
+#   - the console: start the menu (it prints its own "Started in") and choose Exit
+#
+#   mvn -Pcds package && scripts/measure_startup.sh [runs]
+
+RUNS=${1:-10}
+DIR="$(dirname "$0")"
+
+# Average over RUNS of the number in the "<prefix> N ms" line of each run
+average() {
+    prefix=$1
+    shift
+    total=0
+    i=0
+    while [ "$i" -lt "$RUNS" ]; do
+        ms=$("$@" | sed -n "s/^$prefix \([0-9]*\) ms\$/\1/p")
+        total=$((total + ms))
+        i=$((i + 1))
+    done
+    echo $((total / RUNS))
+}
+
+menu() {
+    printf '7\n' | "$DIR/library.sh"
+}
+
+for mode in off on; do
+    export LIBRARY_CDS=$mode
+    echo "CDS $mode: $(average 'Ready in' "$DIR/library.sh" startup) ms average to first session," \
+        "$(average 'Started in' menu) ms to the menu, over $RUNS runs"
+done
@@ -0,0 +1,26 @@
+-- Aligns prestamos_id_seq with the pooled-lo id generator of Lend: each nextval hands out
+-- the first id of a block of :block ids, so the sequence has to advance by :block too.
+-- Stop the application first, then:
+--
+--   psql -d Library -v block=50 -f scripts/prestamos_id_seq_pooled.sql
+--
+-- Going back to one id per nextval is the same with -v block=1. Hibernate reads the
+-- increment at startup and uses it as the block size.
+
+\set ON_ERROR_STOP on
+\if :{?block}
+\else
+    \set block 50
+\endif
+
+BEGIN;
+
+-- The next block starts after every id already handed out
+SELECT setval('prestamos_id_seq',
+              GREATEST((SELECT COALESCE(MAX(id), 0) FROM prestamos),
+                       (SELECT last_value FROM prestamos_id_seq)));
+ALTER SEQUENCE prestamos_id_seq INCREMENT BY :block;
+
+COMMIT;
+
+SELECT increment_by, last_value FROM pg_sequences WHERE sequencename = 'prestamos_id_seq';
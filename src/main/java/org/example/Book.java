@@ -1,16 +1,33 @@
 package org.example;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.ColumnDefault;
 
 import java.util.LinkedHashSet;
 import java.util.Set;
 
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE) // Region "org.example.Book" in ehcache.xml
 @Table(name = "libros")
+// Named queries are checked and compiled when the SessionFactory is built
+// Copies left, open lends of the user and whether the user exists, in one row
+// (ReactiveLendQueries.isBookAvailable)
+@NamedQuery(name = Book.AVAILABILITY_FOR_USER, query =
+        "SELECT b.copias, " +
+            "(SELECT COUNT(l) FROM Lend l " +
+            "WHERE l.libro = b " +
+            "AND l.usuario.codigo = :userCode " +
+            "AND " + Lend.OPEN + "), " +
+            "(SELECT COUNT(u) FROM User u WHERE u.codigo = :userCode) " +
+        "FROM Book b " +
+        "WHERE b.isbn = :isbn")
 public class Book {
+    public static final String AVAILABILITY_FOR_USER = "Book.availabilityForUser";
+
     @Id
-    @SequenceGenerator(name = "libros_id_gen", sequenceName = "prestamos_id_seq", allocationSize = 1)
     @Column(name = "isbn", nullable = false, length = 13)
     private String isbn;
 
@@ -21,6 +38,11 @@ public class Book {
     @Column(name = "copias")
     private Integer copias;
 
+    // Copies owned, lent or not. copias is how many of them are on the shelf, recomputed
+    // from this and the open lends every day by StockReconciliationJob
+    @Column(name = "ejemplares", nullable = false)
+    private Integer ejemplares;
+
     @Column(name = "editorial", length = 60)
     private String editorial;
 
@@ -57,6 +79,13 @@ public class Book {
         this.copias = copias;
     }
 
+    public Integer getEjemplares() {
+        return ejemplares;
+    }
+    public void setEjemplares(Integer ejemplares) {
+        this.ejemplares = ejemplares;
+    }
+
     public String getEditorial() {
         return editorial;
     }
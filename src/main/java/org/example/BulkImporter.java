@@ -0,0 +1,327 @@
+package org.example;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.PGCopyOutputStream;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+
+// Loads CSV files of users, books or lends straight into Postgres, for migrations from the
+// old system or big catalog updates. Entering them one by one through the menu means a
+// persist() per row (and a sequence call per lend); here the file is streamed through COPY
+// into a temporary staging table and moved to the real table with one INSERT ... SELECT.
+//
+//   import users <file>   codigo,nombre,apellidos,fechanacimiento
+//   import books <file>   isbn,titulo,copias,editorial         (copias empty or <= 0 -> 1)
+//   import lends <file>   fechaprestamo,fechadevolucion,libro,usuario   (fechadevolucion may be empty)
+//
+// An optional header line is skipped. Rows that fail validation, repeat a key or point to
+// an unknown user/book are written to <file>.rejects with their line number and the reason;
+// so are open lends of a book the user already has, and open lends beyond the copies left
+// (the first ones in the file get them, as lend() would). Everything else is loaded in a
+// single transaction.
+public class BulkImporter {
+    // Size of the buffer in front of the COPY stream
+    private static final int COPY_BUFFER_SIZE = 1 << 16;
+
+    private final ValidationUtil validationUtil = new ValidationUtil();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2 || !(args[0].equals("users") || args[0].equals("books") || args[0].equals("lends"))) {
+            System.out.println("Usage: import users|books|lends <file.csv>");
+            return;
+        }
+        try {
+            new BulkImporter().importFile(args[0], Path.of(args[1]));
+        } finally {
+            HibernateUtil.closeSessionFactory();
+        }
+    }
+
+    public void importFile(String kind, Path file) throws IOException, SQLException {
+        Path rejectsFile = Path.of(file + ".rejects");
+        long start = System.nanoTime();
+        long rejected;
+        int imported;
+        long copied;
+        long checked;
+
+        try (Writer rejects = Files.newBufferedWriter(rejectsFile);
+             Connection connection = HibernateUtil.getDataSource().getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                JdbcUtil.execute(connection, stagingTable(kind));
+                rejected = copyToStaging(kind, file, connection, rejects);
+                copied = System.nanoTime();
+                JdbcUtil.execute(connection, "ANALYZE import_" + kind);
+                rejected += rejectStagedRows(kind, connection, rejects);
+                checked = System.nanoTime();
+                imported = moveStagedRows(kind, connection);
+                connection.commit();
+            } catch (IOException | SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+        // A lend import changes the stock of its books
+        HibernateUtil.evictAfterPlainSql(kind.equals("users") ? User.class : Book.class);
+
+        long end = System.nanoTime();
+        double seconds = (end - start) / 1e9;
+        System.out.printf("Imported %d %s in %.1f s (%.0f rows/s), %d rejected%n",
+                imported, kind, seconds, imported / seconds, rejected);
+        System.out.printf("  COPY %.1f s, checks %.1f s, insert and commit %.1f s%n",
+                (copied - start) / 1e9, (checked - copied) / 1e9, (end - checked) / 1e9);
+        if (rejected == 0) {
+            Files.delete(rejectsFile);
+        } else {
+            System.out.println("Rejected rows written to " + rejectsFile);
+        }
+    }
+
+    // Dropped at commit. Keeps the line number and the original text for the rejects file
+    private String stagingTable(String kind) {
+        return switch (kind) {
+            case "users" ->
+                    "CREATE TEMP TABLE import_users (" +
+                        "line bigint, raw text, " +
+                        "codigo varchar(8), nombre varchar(25), apellidos varchar(25), fechanacimiento date) " +
+                    "ON COMMIT DROP";
+            case "books" ->
+                    "CREATE TEMP TABLE import_books (" +
+                        "line bigint, raw text, " +
+                        "isbn varchar(13), titulo varchar(90), copias integer, editorial varchar(60)) " +
+                    "ON COMMIT DROP";
+            default ->
+                    "CREATE TEMP TABLE import_lends (" +
+                        "line bigint, raw text, " +
+                        "fechaprestamo date, fechadevolucion date, libro varchar(13), usuario varchar(8)) " +
+                    "ON COMMIT DROP";
+        };
+    }
+
+    // Streams the file through COPY, validating each row on the way. Returns how many rows
+    // were rejected
+    private long copyToStaging(String kind, Path file, Connection connection, Writer rejects)
+            throws IOException, SQLException {
+        CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+        String copy = "COPY import_" + kind + " FROM STDIN WITH (FORMAT csv)";
+        long rejected = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(file);
+             Writer staging = new BufferedWriter(new OutputStreamWriter(
+                     new PGCopyOutputStream(copyManager.copyIn(copy), COPY_BUFFER_SIZE), StandardCharsets.UTF_8))) {
+            String line;
+            long lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || (lineNumber == 1 && isHeader(kind, line))) continue;
+
+                String[] fields = line.split(",", -1);
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = fields[i].trim();
+                }
+                String error = fields.length != 4 ? "expected 4 columns" : validate(kind, fields);
+                if (error != null) {
+                    reject(rejects, lineNumber, error, line);
+                    rejected++;
+                    continue;
+                }
+                if (kind.equals("books") && copiesOf(fields[2]) <= 0) {
+                    // Same rule as LibraryService.addBook
+                    fields[2] = "1";
+                }
+                // Validated fields never contain commas or quotes, only the raw line needs quoting
+                staging.write(lineNumber + ",\"" + line.replace("\"", "\"\"") + "\"," + String.join(",", fields) + "\n");
+            }
+        }
+        return rejected;
+    }
+
+    private boolean isHeader(String kind, String line) {
+        String firstColumn = switch (kind) {
+            case "users" -> "codigo";
+            case "books" -> "isbn";
+            default -> "fechaprestamo";
+        };
+        return line.trim().toLowerCase().startsWith(firstColumn);
+    }
+
+    // Same checks as the interactive menu. Returns null if the row is fine
+    private String validate(String kind, String[] fields) {
+        switch (kind) {
+            case "users":
+                if (!validationUtil.isValidUser(fields[0], fields[1], fields[2], fields[3])) return "invalid user";
+                return null;
+            case "books":
+                if (!validationUtil.isValidBook(fields[0], fields[1], fields[3])) return "invalid book";
+                if (!fields[2].isEmpty() && !fields[2].matches("^-?\\d{1,9}$")) return "invalid copies";
+                return null;
+            default:
+                String returnDate = fields[1].isEmpty() ? null : fields[1];
+                try {
+                    validationUtil.isValidLend(fields[0], returnDate);
+                } catch (IllegalArgumentException e) {
+                    return e.getMessage();
+                }
+                if (returnDate != null && LocalDate.parse(returnDate).isBefore(LocalDate.parse(fields[0]))) {
+                    return "return date before lend date";
+                }
+                if (!validationUtil.isValidISBN(fields[2])) return "invalid ISBN";
+                if (!validationUtil.isValidCode(fields[3])) return "invalid user code";
+                return null;
+        }
+    }
+
+    private int copiesOf(String copies) {
+        return copies.isEmpty() ? 0 : Integer.parseInt(copies);
+    }
+
+    // Rows that are valid on their own but clash with the database or with each other. Each
+    // statement removes them from the staging table and hands them back for the rejects file
+    private long rejectStagedRows(String kind, Connection connection, Writer rejects) throws IOException, SQLException {
+        long rejected = 0;
+        switch (kind) {
+            case "users" -> {
+                rejected += rejectRows(connection, rejects, "duplicate user code in file",
+                        "DELETE FROM import_users s USING import_users d " +
+                        "WHERE d.codigo = s.codigo AND d.line < s.line " +
+                        "RETURNING s.line, s.raw");
+                rejected += rejectRows(connection, rejects, "user already exists",
+                        "DELETE FROM import_users s USING usuarios u " +
+                        "WHERE u.codigo = s.codigo " +
+                        "RETURNING s.line, s.raw");
+            }
+            case "books" -> {
+                rejected += rejectRows(connection, rejects, "duplicate ISBN in file",
+                        "DELETE FROM import_books s USING import_books d " +
+                        "WHERE d.isbn = s.isbn AND d.line < s.line " +
+                        "RETURNING s.line, s.raw");
+                rejected += rejectRows(connection, rejects, "book already exists",
+                        "DELETE FROM import_books s USING libros b " +
+                        "WHERE b.isbn = s.isbn " +
+                        "RETURNING s.line, s.raw");
+            }
+            default -> {
+                rejected += rejectRows(connection, rejects, "unknown user",
+                        "DELETE FROM import_lends s " +
+                        "WHERE NOT EXISTS (SELECT 1 FROM usuarios u WHERE u.codigo = s.usuario) " +
+                        "RETURNING s.line, s.raw");
+                rejected += rejectRows(connection, rejects, "unknown book",
+                        "DELETE FROM import_lends s " +
+                        "WHERE NOT EXISTS (SELECT 1 FROM libros b WHERE b.isbn = s.libro) " +
+                        "RETURNING s.line, s.raw");
+
+                // The same rules lend() applies, for the open lends. The books are locked
+                // first, so no lend or return changes their stock until the import commits
+                JdbcUtil.execute(connection,
+                        "SELECT 1 FROM libros b " +
+                        "WHERE b.isbn IN (SELECT libro FROM import_lends s WHERE " + Lend.openSql("s") + ") " +
+                        "ORDER BY b.isbn FOR UPDATE");
+                rejected += rejectRows(connection, rejects, "duplicate open lend in file",
+                        "DELETE FROM import_lends s USING import_lends d " +
+                        "WHERE d.usuario = s.usuario AND d.libro = s.libro AND d.line < s.line " +
+                        "AND " + Lend.openSql("s") + " AND " + Lend.openSql("d") + " " +
+                        "RETURNING s.line, s.raw");
+                rejected += rejectRows(connection, rejects, "user already has this book",
+                        "DELETE FROM import_lends s USING prestamos p " +
+                        "WHERE p.usuario = s.usuario AND p.libro = s.libro " +
+                        "AND " + Lend.openSql("s") + " AND " + Lend.openSql("p") + " " +
+                        "RETURNING s.line, s.raw");
+                rejected += rejectRows(connection, rejects, "no copies left",
+                        "DELETE FROM import_lends s USING (" +
+                            "SELECT o.line FROM (" +
+                                "SELECT line, libro, row_number() OVER (PARTITION BY libro ORDER BY line) AS n " +
+                                "FROM import_lends s WHERE " + Lend.openSql("s") + ") o " +
+                            "JOIN libros b ON b.isbn = o.libro " +
+                            "WHERE o.n > COALESCE(b.copias, 0)) x " +
+                        "WHERE s.line = x.line " +
+                        "RETURNING s.line, s.raw");
+            }
+        }
+        return rejected;
+    }
+
+    private long rejectRows(Connection connection, Writer rejects, String reason, String sql)
+            throws IOException, SQLException {
+        long rejected = 0;
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery(sql)) {
+            while (rows.next()) {
+                reject(rejects, rows.getLong(1), reason, rows.getString(2));
+                rejected++;
+            }
+        }
+        return rejected;
+    }
+
+    // What is left in the staging table is good: one statement moves it all
+    private int moveStagedRows(String kind, Connection connection) throws SQLException {
+        switch (kind) {
+            case "users":
+                CacheInvalidationBus.publish(connection, CacheInvalidationBus.change(CacheInvalidationBus.INSERT, User.class, CacheInvalidationBus.ALL));
+                return JdbcUtil.execute(connection,
+                        "INSERT INTO usuarios (codigo, nombre, apellidos, fechanacimiento) " +
+                        "SELECT codigo, nombre, apellidos, fechanacimiento FROM import_users");
+            case "books":
+                CacheInvalidationBus.publish(connection, CacheInvalidationBus.change(CacheInvalidationBus.INSERT, Book.class, CacheInvalidationBus.ALL));
+                return JdbcUtil.execute(connection,
+                        "INSERT INTO libros (isbn, titulo, copias, ejemplares, editorial) " +
+                        "SELECT isbn, titulo, copias, copias, editorial FROM import_books");
+            default:
+                // Ids are taken in blocks like Hibernate does (pooled-lo): every nextval is the
+                // first id of a block of "increment" ids, so one call covers that many rows
+                int increment = sequenceIncrement(connection);
+                int imported = JdbcUtil.execute(connection,
+                        "WITH numbered AS (" +
+                            "SELECT row_number() OVER (ORDER BY line) - 1 AS n, " +
+                            "fechaprestamo, fechadevolucion, libro, usuario " +
+                            "FROM import_lends), " +
+                        "blocks AS MATERIALIZED (" +
+                            "SELECT block, nextval('prestamos_id_seq') AS first_id " +
+                            "FROM generate_series(0, (SELECT (COUNT(*) + " + increment + " - 1) / " + increment + " - 1 FROM import_lends)) block) " +
+                        "INSERT INTO prestamos (id, fechaprestamo, fechadevolucion, libro, usuario) " +
+                        "SELECT b.first_id + n.n % " + increment + ", n.fechaprestamo, n.fechadevolucion, n.libro, n.usuario " +
+                        "FROM numbered n " +
+                        "JOIN blocks b ON b.block = n.n / " + increment);
+                // Open lends hold a copy, like the ones made through lend(). The ones beyond
+                // the copies left were rejected, so this never goes below zero
+                JdbcUtil.execute(connection,
+                        "UPDATE libros b SET copias = b.copias - o.lends " +
+                        "FROM (" +
+                            "SELECT libro, COUNT(*) AS lends FROM import_lends s " +
+                            "WHERE " + Lend.openSql("s") + " " +
+                            "GROUP BY libro) o " +
+                        "WHERE b.isbn = o.libro");
+                CacheInvalidationBus.publish(connection,
+                        CacheInvalidationBus.change(CacheInvalidationBus.INSERT, Lend.class, CacheInvalidationBus.ALL),
+                        CacheInvalidationBus.change(CacheInvalidationBus.UPDATE, Book.class, CacheInvalidationBus.ALL));
+                return imported;
+        }
+    }
+
+    static int sequenceIncrement(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet row = statement.executeQuery(
+                     "SELECT increment_by FROM pg_sequences " +
+                     "WHERE schemaname = current_schema() AND sequencename = 'prestamos_id_seq'")) {
+            return row.next() ? row.getInt(1) : 1;
+        }
+    }
+
+    private void reject(Writer rejects, long lineNumber, String reason, String line) throws IOException {
+        rejects.write(lineNumber + ": " + reason + ": " + line + "\n");
+    }
+}
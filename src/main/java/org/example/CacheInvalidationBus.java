@@ -0,0 +1,205 @@
+package org.example;
+
+import jakarta.transaction.Synchronization;
+import org.hibernate.Cache;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+
+// Keeps the second-level cache of several instances of the program (nodes) coherent when
+// they share one database. Every transaction that changes cached state publishes one message
+// with pg_notify just before it commits, so Postgres only delivers it if the write commits.
+// Every node listens on the same channel and evicts what the other nodes changed; its own
+// writes are already handled locally by Hibernate.
+//
+// Message: <node>|<change>;<change>...  change is <op>|<entity>|<id>, op is U (update) or
+// I (insert), id "*" means every row
+//
+// Off unless -Dlibrary.cache.bus=true: a single node has nobody to tell, and the notification
+// is not free. It is one more statement per write, and at commit NOTIFY takes a lock on the
+// server's notification queue that every notifying transaction waits for in turn. To try
+// it, start two instances with the flag against the same database, lend a book on one and
+// look it up on the other.
+public class CacheInvalidationBus {
+    public static final String CHANNEL = "library_cache";
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("library.cache.bus", "false"));
+
+    public static final String UPDATE = "U";
+    public static final String INSERT = "I";
+    public static final String ALL = "*";
+
+    // Tells this node's own messages apart from the rest
+    private static final String NODE_ID = UUID.randomUUID().toString().substring(0, 8);
+    // Postgres refuses payloads of 8000 bytes or more
+    private static final int MAX_PAYLOAD = 7900;
+    // Changes of each session's transaction not yet published. Weak, so a session dropped
+    // without ending its transaction does not stay here
+    private static final Map<Session, Set<String>> PENDING = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static volatile Thread listenerThread;
+    private static volatile boolean running;
+
+    private CacheInvalidationBus() {}
+
+    public static String change(String op, Class<?> entity, String id) {
+        return op + "|" + entity.getSimpleName() + "|" + id;
+    }
+
+    // Called inside the writer's transaction. Only notes the change: all the changes of the
+    // transaction go out together in one pg_notify, after the flush and before the commit
+    public static void publish(Session session, String op, Class<?> entity, String id) {
+        if (!ENABLED) return;
+        Set<String> pending = PENDING.get(session);
+        if (pending == null) {
+            Set<String> changes = new LinkedHashSet<>();
+            PENDING.put(session, changes);
+            session.getTransaction().registerSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                    session.doWork(connection -> publish(connection, changes.toArray(String[]::new)));
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    PENDING.remove(session);
+                }
+            });
+            pending = changes;
+        }
+        pending.add(change(op, entity, id));
+    }
+
+    // Same, for writers that work on a plain JDBC connection (bulk import...): every change
+    // of their transaction in a single call, see change()
+    public static void publish(Connection connection, String... changes) throws SQLException {
+        if (!ENABLED || changes.length == 0) return;
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_notify(?, ?)")) {
+            statement.setString(1, CHANNEL);
+            statement.setString(2, payload(new LinkedHashSet<>(Arrays.asList(changes))));
+            statement.execute();
+        }
+        StatementCounter.count();
+    }
+
+    // Too many changes for one message: every entity touched is evicted whole instead
+    private static String payload(Set<String> changes) {
+        String payload = NODE_ID + "|" + String.join(";", changes);
+        if (payload.length() <= MAX_PAYLOAD) return payload;
+        Set<String> wholeEntities = new LinkedHashSet<>();
+        for (String change : changes) {
+            String[] parts = change.split("\\|", 3);
+            wholeEntities.add(INSERT + "|" + parts[1] + "|" + ALL);
+        }
+        return NODE_ID + "|" + String.join(";", wholeEntities);
+    }
+
+    // Listens on its own connection, outside the pool: it is held for the whole life of the
+    // program and would otherwise count as a leaked connection
+    public static synchronized void start(Properties settings, SessionFactory sessionFactory) {
+        if (!ENABLED || listenerThread != null) return;
+        running = true;
+        listenerThread = Thread.ofPlatform()
+                .name("cache-invalidation-listener")
+                .daemon(true)
+                .start(() -> listen(settings, sessionFactory.getCache()));
+    }
+
+    public static synchronized void stop() {
+        running = false;
+        if (listenerThread != null) {
+            listenerThread.interrupt();
+            listenerThread = null;
+        }
+    }
+
+    private static void listen(Properties settings, Cache cache) {
+        boolean reconnecting = false;
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(
+                    settings.getProperty(AvailableSettings.URL),
+                    settings.getProperty(AvailableSettings.USER),
+                    settings.getProperty(AvailableSettings.PASS))) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                if (reconnecting) {
+                    // Anything published while we were disconnected is lost: start from scratch
+                    cache.evictAllRegions();
+                    reconnecting = false;
+                }
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(5000);
+                    if (notifications == null) continue;
+                    for (PGNotification notification : notifications) {
+                        try {
+                            evict(cache, notification.getParameter());
+                        } catch (RuntimeException e) {
+                            // One bad message must not stop the listener. What it named may
+                            // be stale now, so nothing cached is trusted
+                            System.err.println("Cache invalidation message \"" + notification.getParameter()
+                                    + "\" failed: " + e);
+                            cache.evictAllRegions();
+                        }
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (!running) return;
+                System.err.println("Cache invalidation listener failed, reconnecting: " + e);
+                reconnecting = true;
+                try {
+                    Thread.sleep(2000);
+                } catch (InterruptedException _) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void evict(Cache cache, String payload) {
+        String[] message = payload.split("\\|", 2);
+        if (message.length != 2 || message[0].equals(NODE_ID)) return;
+        for (String change : message[1].split(";")) {
+            evictChange(cache, change);
+        }
+    }
+
+    private static void evictChange(Cache cache, String change) {
+        String[] parts = change.split("\\|", 3);
+        if (parts.length != 3) return;
+        String op = parts[0];
+        String entity = parts[1];
+        String id = parts[2];
+
+        Class<?> entityClass = switch (entity) {
+            case "Book" -> Book.class;
+            case "User" -> User.class;
+            default -> null; // Lends are not cached themselves, only the queries can be stale
+        };
+        if (entityClass != null) {
+            if (id.equals(ALL)) cache.evictEntityData(entityClass);
+            else cache.evictEntityData(entityClass, id);
+        }
+        // Cached lookups hold ids only, so updates of existing rows don't affect them. New
+        // rows and mass changes may, e.g. a lookup that found nothing before the insert
+        if (op.equals(INSERT) || id.equals(ALL) || entityClass == null) {
+            cache.evictDefaultQueryRegion();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.example;
+
+// Hibernate's own counters (org.hibernate.stat.Statistics), published under
+// org.example:type=HibernateStatistics. Counted since startup
+public interface HibernateStatisticsMXBean {
+    long getSessionOpenCount();
+
+    long getTransactionCount();
+
+    // JDBC connections Hibernate obtained from the pool
+    long getConnectCount();
+
+    long getPrepareStatementCount();
+
+    long getQueryExecutionCount();
+
+    long getQueryExecutionMaxTime();
+
+    String getQueryExecutionMaxTimeQueryString();
+
+    long getEntityLoadCount();
+
+    long getEntityFetchCount();
+
+    long getEntityInsertCount();
+
+    long getEntityUpdateCount();
+
+    long getCollectionLoadCount();
+
+    long getSecondLevelCacheHitCount();
+
+    long getSecondLevelCacheMissCount();
+
+    long getQueryCacheHitCount();
+
+    long getQueryCacheMissCount();
+}
@@ -1,40 +1,148 @@
 package org.example;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.Cache;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class HibernateUtil {
-    private static final SessionFactory SESSION_FACTORY;
+    // Every property starting with this prefix in hibernate.cfg.xml is handed to HikariCP
+    private static final String POOL_PREFIX = "hibernate.hikari.";
+    private static final String STATISTICS_MBEAN = "org.example:type=HibernateStatistics";
+
+    // Completed once the SessionFactory is built. Everything that needs it waits here, so
+    // the build can run in the background while the menu is already on screen
+    private static final CompletableFuture<SessionFactory> SESSION_FACTORY = new CompletableFuture<>();
+    private static final AtomicBoolean BOOTSTRAP_STARTED = new AtomicBoolean();
+    private static volatile HikariDataSource DATA_SOURCE;
+    private static final PoolMetrics POOL_METRICS = new PoolMetrics();
     // Logger?
 
-    static {
-        SessionFactory tempSessionFactory;
+    // Starts building the SessionFactory on its own thread and returns at once. Without
+    // this call it is built by the first caller of getSessionFactory(), in that thread
+    public static CompletableFuture<SessionFactory> bootstrapInBackground() {
+        if (BOOTSTRAP_STARTED.compareAndSet(false, true)) {
+            Thread.ofPlatform().name("hibernate-bootstrap").daemon(true).start(HibernateUtil::bootstrap);
+        }
+        return SESSION_FACTORY;
+    }
+
+    private static void bootstrap() {
+        HikariDataSource tempDataSource = null;
         try {
-            // Predetermined configuration for SessionFactory
-            tempSessionFactory = new Configuration().configure("hibernate.cfg.xml").buildSessionFactory();
-            System.out.println("SessionFactory initialized successfully");
+            Configuration configuration = loadConfiguration();
+
+            tempDataSource = createDataSource(configuration.getProperties());
+            // Hibernate borrows its connections from our pool instead of the built-in one
+            configuration.getProperties().put(AvailableSettings.DATASOURCE, tempDataSource);
+
+            SessionFactory tempSessionFactory = configuration.buildSessionFactory();
+            CacheInvalidationBus.start(configuration.getProperties(), tempSessionFactory);
+            registerStatisticsMBean(tempSessionFactory);
+            DATA_SOURCE = tempDataSource;
+            SESSION_FACTORY.complete(tempSessionFactory);
         } catch (Throwable ex) {
             System.err.println("Failed to initialize SessionFactory: " + ex.getMessage());
             ex.printStackTrace();
-            tempSessionFactory = null;
+            if (tempDataSource != null) tempDataSource.close();
+            SESSION_FACTORY.completeExceptionally(ex);
+        }
+    }
+
+    // Hibernate's counters for jconsole and scrapers, next to the pool MBeans of HikariCP
+    // and the operation latencies of OperationMetrics
+    private static void registerStatisticsMBean(SessionFactory sessionFactory) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new HibernateStatisticsView(sessionFactory.getStatistics()),
+                    new ObjectName(STATISTICS_MBEAN));
+        } catch (JMException e) {
+            System.err.println("Could not publish the Hibernate statistics over JMX: " + e.getMessage());
         }
-        SESSION_FACTORY = tempSessionFactory;
     }
+
+    private static void unregisterStatisticsMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(STATISTICS_MBEAN));
+        } catch (JMException _) {
+            // Never registered
+        }
+    }
+
+    // Predetermined configuration for SessionFactory. Shared with every other component
+    // that needs the same mappings and connection settings
+    public static Configuration loadConfiguration() {
+        Configuration configuration = new Configuration().configure("hibernate.cfg.xml");
+        applySystemOverrides(configuration);
+        return configuration;
+    }
+
+    // Any -Dhibernate.xxx=value given to the JVM wins over hibernate.cfg.xml. Useful to point
+    // the program to another database or to resize the pool without rebuilding
+    private static void applySystemOverrides(Configuration configuration) {
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("hibernate.")) {
+                configuration.setProperty(name, System.getProperty(name));
+            }
+        }
+    }
+
+    private static HikariDataSource createDataSource(Properties settings) {
+        Properties poolProperties = new Properties();
+        for (String name : settings.stringPropertyNames()) {
+            if (name.startsWith(POOL_PREFIX)) {
+                poolProperties.setProperty(name.substring(POOL_PREFIX.length()), settings.getProperty(name));
+            }
+        }
+
+        HikariConfig config = new HikariConfig(poolProperties);
+        config.setJdbcUrl(settings.getProperty(AvailableSettings.URL));
+        config.setDriverClassName(settings.getProperty(AvailableSettings.DRIVER));
+        config.setUsername(settings.getProperty(AvailableSettings.USER));
+        config.setPassword(settings.getProperty(AvailableSettings.PASS));
+        config.setMetricsTrackerFactory(POOL_METRICS);
+        return new HikariDataSource(config);
+    }
+
     // Consider removing it. Object is now static
+    // Blocks until the SessionFactory is ready
     public static SessionFactory getSessionFactory() {
-        if (SESSION_FACTORY == null) {
-            throw new IllegalStateException("SessionFactory was not initialized successfully");
+        if (BOOTSTRAP_STARTED.compareAndSet(false, true)) {
+            bootstrap();
+        }
+        try {
+            return SESSION_FACTORY.join();
+        } catch (CompletionException ex) {
+            throw new IllegalStateException("SessionFactory was not initialized successfully", ex.getCause());
         }
-        return SESSION_FACTORY;
+    }
+
+    public static DataSource getDataSource() {
+        getSessionFactory();
+        return DATA_SOURCE;
+    }
+
+    public static PoolMetrics getPoolMetrics() {
+        return POOL_METRICS;
     }
 
     public static Session openSession() {
-        if (SESSION_FACTORY == null) {
-            throw new IllegalStateException("SessionFactory is not initialized");
-        }
-        System.out.println("Opening a new Hibernate session");
-        return SESSION_FACTORY.openSession();
+        // No console output here: sessions are opened concurrently by the service layer
+        return getSessionFactory().openSession();
     }
     // Probably don't need it due to try-with-resources usage
     public static void closeSession(Session session) {
@@ -49,15 +157,67 @@ public class HibernateUtil {
         }
     }
 
+    public static void printPoolStatistics() {
+        System.out.println(POOL_METRICS);
+    }
+
+    // Hit/miss ratios of the second-level cache regions and of the query cache
+    public static String getCacheStatistics() {
+        Statistics statistics = getSessionFactory().getStatistics();
+        StringBuilder report = new StringBuilder("Cache:");
+        for (Class<?> entity : new Class<?>[]{Book.class, User.class}) {
+            CacheRegionStatistics region = statistics.getDomainDataRegionStatistics(entity.getName());
+            report.append(formatCacheLine(entity.getSimpleName(),
+                    region.getHitCount(), region.getMissCount(), region.getPutCount()));
+        }
+        report.append(formatCacheLine("Queries",
+                statistics.getQueryCacheHitCount(), statistics.getQueryCacheMissCount(), statistics.getQueryCachePutCount()));
+        return report.toString();
+    }
+
+    private static String formatCacheLine(String name, long hits, long misses, long puts) {
+        long lookups = hits + misses;
+        return String.format("%n      %-8s hits=%d misses=%d puts=%d hitRatio=%.1f%%",
+                name, hits, misses, puts, lookups == 0 ? 0.0 : 100.0 * hits / lookups);
+    }
+
+    // After rows were written with plain SQL, which Hibernate never sees: drops the cached
+    // entities of the given classes and every cached query result
+    public static void evictAfterPlainSql(Class<?>... entities) {
+        Cache cache = getSessionFactory().getCache();
+        for (Class<?> entity : entities) {
+            cache.evictEntityData(entity);
+        }
+        cache.evictDefaultQueryRegion();
+    }
+
+    public static void printCacheStatistics() {
+        System.out.println(getCacheStatistics());
+    }
+
     public static void closeSessionFactory() {
-        if (SESSION_FACTORY != null) {
+        StockReconciliationJob.stop();
+        CacheInvalidationBus.stop();
+        if (!BOOTSTRAP_STARTED.get()) return;
+        // If the build is still running, let it finish so its pool is not left open
+        SessionFactory sessionFactory = SESSION_FACTORY.exceptionally(ex -> null).join();
+        if (sessionFactory != null) {
             try {
-                SESSION_FACTORY.close();
+                printPoolStatistics();
+                printCacheStatistics();
+                OperationMetrics.printReport();
+                unregisterStatisticsMBean();
+                sessionFactory.close();
                 System.out.println("SessionFactory closed successfully");
             } catch (Exception ex) {
                 System.err.println("Failed to close SessionFactory: " + ex.getMessage());
                 ex.printStackTrace();
             }
         }
+        // Hibernate does not own the DataSource, so it is not closed along with the factory
+        if (DATA_SOURCE != null) {
+            DATA_SOURCE.close();
+            System.out.println("Connection pool closed successfully");
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,30 @@
+package org.example;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// Plain SQL on a connection of the pool, for the code that works past Hibernate (bulk
+// import, workload seed, stock reconciliation, benchmark data)
+public final class JdbcUtil {
+    private JdbcUtil() {}
+
+    // First column of the first row of a query that always returns one, like a COUNT(*)
+    public static long count(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet row = statement.executeQuery(sql)) {
+            row.next();
+            return row.getLong(1);
+        }
+    }
+
+    // Any statement. Returns the rows changed, or -1 if it returned rows instead
+    // (SELECT ... FOR UPDATE)
+    public static int execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+            return statement.getUpdateCount();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.example;
+
+import org.hibernate.SessionEventListener;
+
+// Hibernate creates one per session (hibernate.session.events.auto in hibernate.cfg.xml)
+// and calls end() when the session closes: that is the SessionEvent. When the event is
+// not enabled in any recording, the callbacks only bump a few counters
+public class JfrSessionListener implements SessionEventListener {
+    private final SessionEvent event = new SessionEvent();
+
+    public JfrSessionListener() {
+        event.begin();
+    }
+
+    @Override
+    public void jdbcExecuteStatementEnd() {
+        event.statements++;
+    }
+
+    @Override
+    public void transactionCompletion(boolean successful) {
+        if (successful) event.commits++;
+        else event.rollbacks++;
+    }
+
+    @Override
+    public void end() {
+        event.commit();
+    }
+}
@@ -7,11 +7,88 @@ import org.hibernate.annotations.OnDeleteAction;
 import java.time.LocalDate;
 
 @Entity
-@Table(name = "prestamos")
+@Table(name = "prestamos", indexes = {
+        // Year reports: range scan on the lend date
+        @Index(name = "prestamos_fechaprestamo_idx", columnList = "fechaprestamo"),
+        // Open lends of a user: equality on the user, then the return date
+        @Index(name = "prestamos_usuario_fechadevolucion_idx", columnList = "usuario, fechadevolucion")
+})
+// Named queries are checked and compiled when the SessionFactory is built
+@NamedQuery(name = Lend.COUNT_OPEN_BY_USER_AND_BOOK, query =
+        "SELECT COUNT(*) " +
+        "FROM Lend l " +
+        "WHERE " +
+                "l.usuario = :givenUser " +
+                "AND " +
+                Lend.OPEN + " " +
+                "AND l.libro = :givenBook")
+@NamedQuery(name = Lend.OPEN_BY_USER_AND_BOOK, query =
+        "FROM Lend l " +
+        "JOIN FETCH l.libro " +
+        "JOIN FETCH l.usuario " +
+        "WHERE " +
+                "l.libro.isbn = :isbn " +
+                "AND " +
+                "l.usuario.codigo = :userCode " +
+                "AND " +
+                Lend.OPEN)
+// Half-open range [yearStart, nextYearStart) on the bare column, so it can use
+// prestamos_fechaprestamo_idx
+@NamedQuery(name = Lend.VIEWS_BY_DATE_RANGE, query =
+        Lend.VIEW_SELECT +
+        "WHERE l.fechaprestamo >= :yearStart " +
+        "AND l.fechaprestamo < :nextYearStart")
+@NamedQuery(name = Lend.OPEN_VIEWS_BY_USER, query =
+        Lend.VIEW_SELECT +
+        "WHERE " +
+            "u.codigo = :userCode " +
+            "AND " +
+            Lend.OPEN)
+@NamedQuery(name = Lend.REASSIGN_BY_DATE_RANGE, query =
+        "UPDATE Lend l " +
+        "SET l.usuario = :newUser " +
+        "WHERE l.fechaprestamo >= :yearStart " +
+        "AND l.fechaprestamo < :nextYearStart")
+@NamedQuery(name = Lend.REASSIGN_BY_IDS, query =
+        "UPDATE Lend l " +
+        "SET l.usuario = :newUser " +
+        "WHERE l.id IN :lendIds")
 public class Lend {
+    public static final int ID_BLOCK_SIZE = 50;
+
+    public static final String COUNT_OPEN_BY_USER_AND_BOOK = "Lend.countOpenByUserAndBook";
+    public static final String OPEN_BY_USER_AND_BOOK = "Lend.openByUserAndBook";
+    public static final String VIEWS_BY_DATE_RANGE = "Lend.viewsByDateRange";
+    public static final String OPEN_VIEWS_BY_USER = "Lend.openViewsByUser";
+    public static final String REASSIGN_BY_DATE_RANGE = "Lend.reassignByDateRange";
+    public static final String REASSIGN_BY_IDS = "Lend.reassignByIds";
+
+    // An open lend holds its copy: not returned yet, or due back after :currentDate. A return
+    // sets the end date to that day, so it closes at once. Every query on open lends, here,
+    // in Book and in the plain SQL of openSql(), uses this condition on the alias "l"
+    static final String OPEN = "(l.fechadevolucion > :currentDate OR l.fechadevolucion IS NULL)";
+
+    // OPEN for the code that writes the tables directly, on any alias, with today's date of
+    // the database
+    static String openSql(String alias) {
+        return "(" + alias + ".fechadevolucion > CURRENT_DATE OR " + alias + ".fechadevolucion IS NULL)";
+    }
+
+    // Listings project each lend straight into a LendView: seven columns instead of
+    // three full entities
+    static final String VIEW_SELECT =
+            "SELECT new org.example.LendView(" +
+                    "l.id, l.fechaprestamo, l.fechadevolucion, b.isbn, b.titulo, u.codigo, u.nombre) " +
+            "FROM Lend l " +
+            "JOIN l.libro b " +
+            "JOIN l.usuario u ";
+
     @Id
+    // Ids are handed out in blocks (pooled-lo, see hibernate.cfg.xml): one nextval per
+    // ID_BLOCK_SIZE lends instead of one per lend, so inserts can also be batched.
+    // The sequence increment in the database decides the real block size
     @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "prestamos_id_gen")
-    @SequenceGenerator(name = "prestamos_id_gen", sequenceName = "prestamos_id_seq", allocationSize = 1)
+    @SequenceGenerator(name = "prestamos_id_gen", sequenceName = "prestamos_id_seq", allocationSize = Lend.ID_BLOCK_SIZE)
     @Column(name = "id", nullable = false)
     private Integer id;
 
@@ -21,23 +98,26 @@ public class Lend {
     @Column(name = "fechadevolucion")
     private LocalDate fechadevolucion;
 
-    @ManyToOne(fetch = FetchType.EAGER, optional = false)
+    // Lazy on both sides: listings use LendView projections and the lend/return flows
+    // join fetch what they need, so a Lend never drags whole Book and User rows by default
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
     @OnDelete(action = OnDeleteAction.CASCADE)
     @JoinColumn(name = "libro", nullable = false)
     private Book libro;
 
-    @ManyToOne(fetch = FetchType.EAGER, optional = false)
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
     @OnDelete(action = OnDeleteAction.CASCADE)
     @JoinColumn(name = "usuario", nullable = false)
     private org.example.User usuario;
 
+    // Only the keys of the associations: reading an id never initializes a lazy proxy
     @Override
     public String toString() {
         return  "Lend ID: " + this.id + "\n" +
                 "Lend Date: " + this.fechaprestamo + "\n" +
                 "Return Date: " + this.fechadevolucion + "\n" +
-                "Book: " + this.libro + "\n" +
-                "User: " + this.usuario;
+                "Book ISBN: " + (this.libro != null ? this.libro.getIsbn() : null) + "\n" +
+                "User Code: " + (this.usuario != null ? this.usuario.getCodigo() : null);
     }
 
     // Getters and Setters
@@ -0,0 +1,82 @@
+package org.example;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.stat.Statistics;
+
+import java.time.LocalDate;
+import java.util.List;
+
+// Measures how fast lends go in through Hibernate, to compare id block sizes. Run it once
+// with the sequence at increment 1 and once after scripts/prestamos_id_seq_pooled.sql:
+//
+//   insert-bench [lends]   (default 100000)
+//
+// Persists the lends against the first user and book found, in JDBC batches, and rolls
+// everything back at the end: only the sequence moves. It also times a flush with all of
+// them managed and one changed, which is what bytecode enhancement (dirty tracking) speeds
+// up: compare a build with the enhance plugin against one without it.
+public class LendInsertBenchmark {
+    public static void main(String[] args) {
+        int lends = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        try {
+            run(lends);
+        } finally {
+            HibernateUtil.closeSessionFactory();
+        }
+    }
+
+    private static void run(int lends) {
+        Statistics statistics = HibernateUtil.getSessionFactory().getStatistics();
+        int batchSize = Integer.parseInt(HibernateUtil.getSessionFactory().getProperties()
+                .getOrDefault("hibernate.jdbc.batch_size", "1").toString());
+
+        try (Session session = HibernateUtil.openSession()) {
+            Transaction transaction = session.beginTransaction();
+            try {
+                User user = session.createSelectionQuery("FROM User", User.class).setMaxResults(1).getSingleResultOrNull();
+                Book book = session.createSelectionQuery("FROM Book", Book.class).setMaxResults(1).getSingleResultOrNull();
+                if (user == null || book == null) {
+                    System.out.println("Needs at least one user and one book in the database");
+                    return;
+                }
+
+                LocalDate lendDate = LocalDate.of(2000, 1, 1);
+                long statementsBefore = statistics.getPrepareStatementCount();
+                long start = System.nanoTime();
+                for (int i = 1; i <= lends; i++) {
+                    Lend lend = new Lend();
+                    lend.setFechaprestamo(lendDate);
+                    lend.setFechadevolucion(lendDate);
+                    lend.setLibro(book);
+                    lend.setUsuario(user);
+                    session.persist(lend);
+                    if (i % batchSize == 0) {
+                        // Keep the persistence context small, as a real bulk load would
+                        session.flush();
+                        session.clear();
+                        user = session.getReference(User.class, user.getCodigo());
+                        book = session.getReference(Book.class, book.getIsbn());
+                    }
+                }
+                session.flush();
+                double seconds = (System.nanoTime() - start) / 1e9;
+
+                System.out.printf("%d lends in %.2f s: %.0f lends/s, %d statements prepared, batch size %d%n",
+                        lends, seconds, lends / seconds, statistics.getPrepareStatementCount() - statementsBefore, batchSize);
+
+                session.clear();
+                List<Lend> managed = session.createSelectionQuery("FROM Lend l WHERE l.fechaprestamo = :lendDate", Lend.class)
+                        .setParameter("lendDate", lendDate)
+                        .getResultList();
+                managed.getFirst().setFechadevolucion(lendDate.plusDays(1));
+                start = System.nanoTime();
+                session.flush();
+                System.out.printf("Flush with %d managed lends, 1 changed: %.1f ms%n",
+                        managed.size(), (System.nanoTime() - start) / 1e6);
+            } finally {
+                transaction.rollback();
+            }
+        }
+    }
+}
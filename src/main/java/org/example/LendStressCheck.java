@@ -0,0 +1,140 @@
+package org.example;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+// Races threads for the copies of one book through LibraryService.lend() and checks that
+// no copy is lent twice: with K copies exactly K lends succeed, the rest are refused, and
+// copias ends at 0. Repeated with 1, 2, 4... threads up to the maximum, printing lends/s
+// for each, so the cost of the contention on the book row shows as the threads grow.
+//
+//   lend-stress [copies] [maxThreads]
+//
+// Every thread lends as its own user. The lends are already returned (in 1903), so the
+// same user can take the book again and only the stock limits them. Its test book and
+// users are deleted once the rounds end. Exits with status 1 if any round oversells
+public class LendStressCheck {
+    private static final String USER_PREFIX = "STR";
+    private static final String ISBN = "9999999999997";
+    private static final LocalDate LEND_DATE = LocalDate.of(1903, 1, 1);
+
+    private final LibraryService libraryService = new LibraryService();
+    private final int copies;
+    private final int maxThreads;
+    private final List<String> userCodes;
+
+    private LendStressCheck(int copies, int maxThreads) {
+        this.copies = copies;
+        this.maxThreads = maxThreads;
+        this.userCodes = IntStream.rangeClosed(1, maxThreads).mapToObj(i -> USER_PREFIX + i).toList();
+    }
+
+    public static void main(String[] args) {
+        int copies = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        boolean passed;
+        try {
+            passed = new LendStressCheck(copies, maxThreads).run();
+        } catch (LibraryException e) {
+            System.err.println("Lend stress check could not run: " + e.getMessage());
+            passed = false;
+        } finally {
+            HibernateUtil.closeSessionFactory();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run() throws LibraryException {
+        TestDataUtil.removeTestData(ISBN, userCodes);
+        try {
+            for (String userCode : userCodes) {
+                libraryService.addUser(userCode, "Stress", "Check", LEND_DATE);
+            }
+            libraryService.addBook(ISBN, "Stress Check", copies, "Stress");
+
+            boolean passed = true;
+            System.out.printf("%d copies of one book:%n", copies);
+            System.out.println("threads   lends   refused  failed   lends/s  result");
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                passed &= round(threads);
+            }
+            return passed;
+        } finally {
+            TestDataUtil.removeTestData(ISBN, userCodes);
+        }
+    }
+
+    // Every thread lends until the book runs out
+    private boolean round(int threads) throws LibraryException {
+        resetBook();
+        LongAdder lent = new LongAdder();
+        LongAdder refused = new LongAdder();
+        LongAdder failed = new LongAdder();
+
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            for (String userCode : userCodes.subList(0, threads)) {
+                // Stops at the first refusal. Any other error stops the thread too and shows
+                // up as fewer lends than copies
+                executor.submit(() -> {
+                    while (true) {
+                        try {
+                            libraryService.lend(userCode, ISBN, LEND_DATE, LEND_DATE.plusDays(1));
+                            lent.increment();
+                        } catch (LibraryException e) {
+                            if (e.getReason() == LibraryException.Reason.UNAVAILABLE) refused.increment();
+                            else failed.increment();
+                            return;
+                        } catch (RuntimeException e) {
+                            failed.increment();
+                            return;
+                        }
+                    }
+                });
+            }
+        } // Every thread has stopped by here, so the round is over
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Object[] stock = stockInDatabase();
+        long left = ((Number) stock[0]).longValue();
+        long rows = ((Number) stock[1]).longValue();
+        boolean passed = lent.sum() == copies && rows == copies && left == 0;
+        System.out.printf("%7d %7d %9d %7d %9.0f  %s%n",
+                threads, lent.sum(), refused.sum(), failed.sum(), lent.sum() / seconds,
+                passed ? "OK" : (rows > copies ? "OVERSOLD" : "FAILED") + ": " + rows + " lend rows, " + left + " copies left");
+        return passed;
+    }
+
+    private void resetBook() {
+        try (Session session = HibernateUtil.openSession()) {
+            Transaction transaction = session.beginTransaction();
+            session.createMutationQuery("DELETE FROM Lend l WHERE l.libro.isbn = :isbn")
+                    .setParameter("isbn", ISBN)
+                    .executeUpdate();
+            session.createMutationQuery("UPDATE Book b SET b.copias = :copies, b.ejemplares = :copies WHERE b.isbn = :isbn")
+                    .setParameter("copies", copies)
+                    .setParameter("isbn", ISBN)
+                    .executeUpdate();
+            transaction.commit();
+        }
+    }
+
+    // Copies left and lend rows as committed in the tables, in one native query: a stale
+    // entry in the second-level cache must not hide an oversell
+    private Object[] stockInDatabase() {
+        try (Session session = HibernateUtil.openSession()) {
+            return session.createNativeQuery(
+                            "SELECT b.copias, (SELECT COUNT(*) FROM prestamos p WHERE p.libro = b.isbn) " +
+                            "FROM libros b WHERE b.isbn = :isbn", Object[].class)
+                    .setParameter("isbn", ISBN)
+                    .getSingleResult();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.example;
+
+import java.time.LocalDate;
+
+// Immutable snapshot of a lend handed out by LibraryService. Safe to share between threads
+// and to use after the session that loaded it is closed. The listing queries build it
+// directly with "SELECT new org.example.LendView(...)", so only these columns are read
+public record LendView(
+        Integer id,
+        LocalDate lendDate,
+        LocalDate returnDate,
+        String isbn,
+        String title,
+        String userCode,
+        String userName) {
+
+    public static LendView from(Lend lend) {
+        return new LendView(
+                lend.getId(),
+                lend.getFechaprestamo(),
+                lend.getFechadevolucion(),
+                lend.getLibro().getIsbn(),
+                lend.getLibro().getTitulo(),
+                lend.getUsuario().getCodigo(),
+                lend.getUsuario().getNombre());
+    }
+
+    @Override
+    public String toString() {
+        return  "Lend ID: " + this.id + "\n" +
+                "Lend Date: " + this.lendDate + "\n" +
+                "Return Date: " + this.returnDate + "\n" +
+                "Book: " + this.isbn + " - " + this.title + "\n" +
+                "User: " + this.userCode + " - " + this.userName;
+    }
+}
@@ -0,0 +1,29 @@
+package org.example;
+
+// Thrown by LibraryService when an operation cannot be completed. The reason lets every
+// client (console, HTTP...) decide how to present it
+public class LibraryException extends Exception {
+    public enum Reason {
+        INVALID_INPUT,  // The arguments do not pass validation
+        NOT_FOUND,      // The user, book or lend does not exist
+        CONFLICT,       // Already exists or already lent to that user
+        UNAVAILABLE,    // No copies left to lend
+        FAILED          // The database operation itself failed
+    }
+
+    private final Reason reason;
+
+    public LibraryException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public LibraryException(Reason reason, String message, Throwable cause) {
+        super(message, cause);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,324 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// HTTP/JSON front end for the library operations, built on the JDK's own HTTP server.
+// By default every request runs on its own virtual thread, so a request blocked on JDBC
+// does not hold a platform thread. Start it with: Main serve [port]
+//
+//   POST /users           {"code", "name", "surname", "dateOfBirth"}
+//   POST /books           {"isbn", "title", "copies", "publisher"}
+//   POST /lends           {"userCode", "isbn", "from", "to"}
+//   POST /returns         {"userCode", "isbn"}
+//   POST /lends/reassign  {"lendIds", "userCode"}
+//   GET  /lends?year=YYYY
+//   GET  /users/{code}/lends
+//   GET  /books/{isbn}/availability?user={code}
+//
+// -Dlibrary.http.executor=platform:<n> swaps in a fixed pool of n platform threads, which
+// is what the virtual thread mode is compared against (see HttpLoadDriver).
+// -Dlibrary.http.reactive=true serves the three GET routes through ReactiveLendQueries:
+// the handler returns right away and the response is written once the query completes
+public class LibraryHttpServer {
+    public static final int DEFAULT_PORT = 8080;
+
+    private final LibraryService libraryService;
+    private final ReactiveLendQueries reactiveQueries; // null when the reads are blocking
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ObjectMapper mapper;
+
+    // Request bodies
+    record NewUser(String code, String name, String surname, LocalDate dateOfBirth) {}
+    record NewBook(String isbn, String title, Integer copies, String publisher) {}
+    record NewLend(String userCode, String isbn, LocalDate from, LocalDate to) {}
+    record ReturnRequest(String userCode, String isbn) {}
+    record ReassignRequest(List<Integer> lendIds, String userCode) {}
+
+    // Response bodies. Entities are never serialized directly (they carry their lend collections)
+    record UserJson(String code, String name, String surname, LocalDate dateOfBirth) {
+        static UserJson from(User user) {
+            return new UserJson(user.getCodigo(), user.getNombre(), user.getApellidos(), user.getFechanacimiento());
+        }
+    }
+    record BookJson(String isbn, String title, Integer copies, String publisher) {
+        static BookJson from(Book book) {
+            return new BookJson(book.getIsbn(), book.getTitulo(), book.getCopias(), book.getEditorial());
+        }
+    }
+    record ReassignResult(int updated) {}
+    record Availability(boolean available) {}
+    record ErrorJson(String reason, String message) {}
+
+    // Thrown by the handlers when the request itself is malformed
+    private static class BadRequestException extends Exception {
+        BadRequestException(String message) {
+            super(message);
+        }
+    }
+
+    public LibraryHttpServer(LibraryService libraryService, int port, ExecutorService executor) throws IOException {
+        this(libraryService, null, port, executor);
+    }
+
+    public LibraryHttpServer(LibraryService libraryService, ReactiveLendQueries reactiveQueries,
+                             int port, ExecutorService executor) throws IOException {
+        this.libraryService = libraryService;
+        this.reactiveQueries = reactiveQueries;
+        this.executor = executor;
+        this.mapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/users", this::handleUsers);
+        this.server.createContext("/books", this::handleBooks);
+        this.server.createContext("/lends", this::handleLends);
+        this.server.createContext("/returns", this::handleReturns);
+    }
+
+    // "virtual" (default) or "platform:<threads>"
+    public static ExecutorService createExecutor(String mode) {
+        if (mode.startsWith("platform")) {
+            int threads = mode.contains(":") ? Integer.parseInt(mode.substring(mode.indexOf(':') + 1)) : 200;
+            return Executors.newFixedThreadPool(threads);
+        }
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Library HTTP server listening on port " + getPort());
+    }
+
+    // The one actually bound, also when created with port 0
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.close();
+        if (reactiveQueries != null) reactiveQueries.close();
+    }
+
+    // Handlers
+    // A context gets every path that starts with its own, "/usersX" and "/users/" included,
+    // so every route compares the whole path
+    private void handleUsers(HttpExchange exchange) throws IOException {
+        // /users/{code}/lends
+        String path = exchange.getRequestURI().getPath();
+        String[] parts = path.split("/");
+        if (isMethod(exchange, "GET") && parts.length == 4 && parts[1].equals("users") && parts[3].equals("lends")) {
+            if (reactiveQueries != null) {
+                respondAsync(exchange, reactiveQueries.openLendsByUser(parts[2]));
+            } else {
+                respond(exchange, 200, () -> libraryService.openLendsByUser(parts[2]));
+            }
+        } else if (isMethod(exchange, "POST") && path.equals("/users")) {
+            respond(exchange, 201, () -> {
+                NewUser body = readBody(exchange, NewUser.class);
+                return UserJson.from(libraryService.addUser(body.code(), body.name(), body.surname(), body.dateOfBirth()));
+            });
+        } else {
+            sendError(exchange, 404, "NOT_FOUND", "No such resource");
+        }
+    }
+
+    private void handleBooks(HttpExchange exchange) throws IOException {
+        // /books/{isbn}/availability?user={code}
+        String path = exchange.getRequestURI().getPath();
+        String[] parts = path.split("/");
+        if (isMethod(exchange, "GET") && parts.length == 4 && parts[1].equals("books") && parts[3].equals("availability")) {
+            String userCode = queryParameters(exchange).get("user");
+            if (userCode == null) {
+                sendError(exchange, 400, "INVALID_INPUT", "The 'user' parameter is mandatory");
+            } else if (reactiveQueries != null) {
+                respondAsync(exchange, reactiveQueries.isBookAvailable(userCode, parts[2])
+                        .thenApply(available -> available == null ? null : new Availability(available)));
+            } else {
+                respond(exchange, 200, () -> new Availability(libraryService.isBookAvailable(userCode, parts[2])));
+            }
+        } else if (isMethod(exchange, "POST") && path.equals("/books")) {
+            respond(exchange, 201, () -> {
+                NewBook body = readBody(exchange, NewBook.class);
+                int copies = body.copies() != null ? body.copies() : 1;
+                return BookJson.from(libraryService.addBook(body.isbn(), body.title(), copies, body.publisher()));
+            });
+        } else {
+            sendError(exchange, 404, "NOT_FOUND", "No such resource");
+        }
+    }
+
+    private void handleLends(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        if (isMethod(exchange, "POST") && path.equals("/lends/reassign")) {
+            respond(exchange, 200, () -> {
+                ReassignRequest body = readBody(exchange, ReassignRequest.class);
+                return new ReassignResult(libraryService.reassignLends(body.lendIds(), body.userCode()));
+            });
+        } else if (isMethod(exchange, "POST") && path.equals("/lends")) {
+            respond(exchange, 201, () -> {
+                NewLend body = readBody(exchange, NewLend.class);
+                return libraryService.lend(body.userCode(), body.isbn(), body.from(), body.to());
+            });
+        } else if (isMethod(exchange, "GET") && path.equals("/lends")) {
+            String year = queryParameters(exchange).get("year");
+            if (year == null || !year.matches("^\\d{4}$")) {
+                sendError(exchange, 400, "INVALID_INPUT", "The 'year' parameter must be a 4 digit year");
+            } else if (reactiveQueries != null) {
+                respondAsync(exchange, reactiveQueries.lendsByYear(Integer.parseInt(year)));
+            } else {
+                respond(exchange, 200, () -> libraryService.lendsByYear(Integer.parseInt(year)));
+            }
+        } else {
+            sendError(exchange, 404, "NOT_FOUND", "No such resource");
+        }
+    }
+
+    private void handleReturns(HttpExchange exchange) throws IOException {
+        if (isMethod(exchange, "POST") && exchange.getRequestURI().getPath().equals("/returns")) {
+            respond(exchange, 200, () -> {
+                ReturnRequest body = readBody(exchange, ReturnRequest.class);
+                return libraryService.returnBook(body.userCode(), body.isbn());
+            });
+        } else {
+            sendError(exchange, 404, "NOT_FOUND", "No such resource");
+        }
+    }
+
+    // Plumbing
+    @FunctionalInterface
+    private interface Action {
+        Object execute() throws LibraryException, BadRequestException;
+    }
+
+    private void respond(HttpExchange exchange, int status, Action action) throws IOException {
+        try (exchange) {
+            try {
+                sendJson(exchange, status, action.execute());
+            } catch (BadRequestException e) {
+                sendError(exchange, 400, "INVALID_INPUT", e.getMessage());
+            } catch (LibraryException e) {
+                sendError(exchange, statusOf(e.getReason()), e.getReason().name(), e.getMessage());
+            } catch (RuntimeException e) {
+                System.err.println("Unexpected error serving " + exchange.getRequestURI() + ": " + e.getMessage());
+                sendError(exchange, 500, "FAILED", "Unexpected error");
+            }
+        }
+    }
+
+    // The exchange stays open after the handler returns. The response is written from our
+    // executor, never from the reactive driver's event loop. A null result means not found
+    private void respondAsync(HttpExchange exchange, CompletionStage<?> result) {
+        result.whenCompleteAsync((value, error) -> {
+            try (exchange) {
+                if (error != null) {
+                    System.err.println("Unexpected error serving " + exchange.getRequestURI() + ": " + error.getMessage());
+                    sendError(exchange, 500, "FAILED", "Unexpected error");
+                } else if (value == null) {
+                    sendError(exchange, 404, "NOT_FOUND", "No such resource");
+                } else {
+                    sendJson(exchange, 200, value);
+                }
+            } catch (IOException e) {
+                System.err.println("Could not send the response: " + e.getMessage());
+            }
+        }, executor);
+    }
+
+    private int statusOf(LibraryException.Reason reason) {
+        return switch (reason) {
+            case INVALID_INPUT -> 400;
+            case NOT_FOUND -> 404;
+            case CONFLICT, UNAVAILABLE -> 409;
+            case FAILED -> 500;
+        };
+    }
+
+    private boolean isMethod(HttpExchange exchange, String method) {
+        return exchange.getRequestMethod().equalsIgnoreCase(method);
+    }
+
+    private <T> T readBody(HttpExchange exchange, Class<T> type) throws BadRequestException {
+        try (InputStream body = exchange.getRequestBody()) {
+            T value = mapper.readValue(body, type);
+            if (value == null) {
+                throw new BadRequestException("Missing request body");
+            }
+            return value;
+        } catch (IOException e) {
+            throw new BadRequestException("Malformed JSON body: " + e.getMessage());
+        }
+    }
+
+    private Map<String, String> queryParameters(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) return parameters;
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(
+                        URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private void sendError(HttpExchange exchange, int status, String reason, String message) throws IOException {
+        sendJson(exchange, status, new ErrorJson(reason, message));
+    }
+
+    private void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = mapper.writeValueAsBytes(body);
+        } catch (JsonProcessingException e) {
+            throw new IOException("Could not serialize the response", e);
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // Main serve [port]
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        String mode = System.getProperty("library.http.executor", "virtual");
+
+        ReactiveLendQueries reactiveQueries = Boolean.getBoolean("library.http.reactive") ? new ReactiveLendQueries() : null;
+
+        LibraryHttpServer httpServer = new LibraryHttpServer(new LibraryService(), reactiveQueries, port, createExecutor(mode));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            httpServer.stop();
+            HibernateUtil.closeSessionFactory();
+        }));
+        httpServer.start();
+        StockReconciliationJob.start();
+        System.out.println("Executor mode: " + mode + (reactiveQueries != null ? ", reactive reads" : ""));
+    }
+}
@@ -0,0 +1,446 @@
+package org.example;
+
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.PersistenceException;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.query.SelectionQuery;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static org.example.LibraryException.Reason.*;
+
+// Stateless entry point to every library operation. It keeps no request data between
+// calls: every method works on its arguments and its own session, so one instance can
+// be shared by any number of threads (console, HTTP handlers, load generators...)
+public class LibraryService {
+    private final ValidationUtil validationUtil;
+
+    public LibraryService() {
+        this.validationUtil = new ValidationUtil();
+    }
+
+    // A piece of work that runs inside a session opened by this class
+    @FunctionalInterface
+    private interface UnitOfWork<T> {
+        T execute(Session session) throws LibraryException;
+    }
+
+    // Runs the work in its own session and transaction. Concurrency conflicts are retried
+    // (see TransactionRetry); business rejections and real errors are rolled back and reported.
+    // Every operation is timed under its origin name (see OperationMetrics)
+    private <T> T inTransaction(String origin, UnitOfWork<T> work) throws LibraryException {
+        return OperationMetrics.time(origin, () -> retryInTransaction(origin, work));
+    }
+
+    private <T> T retryInTransaction(String origin, UnitOfWork<T> work) throws LibraryException {
+        for (int attempt = 1; ; attempt++) {
+            try (Session session = openSession(origin)) {
+                TransactionEvent event = TransactionEvent.begin(origin, attempt);
+                Transaction transaction = session.beginTransaction();
+                try {
+                    T result = work.execute(session);
+                    transaction.commit();
+                    event.end(TransactionEvent.COMMIT);
+                    return result;
+                } catch (LibraryException e) {
+                    rollback(transaction);
+                    event.end(TransactionEvent.ROLLBACK);
+                    throw e;
+                } catch (IllegalStateException | PersistenceException e) {
+                    if (!TransactionRetry.shouldRetry(attempt, e)) {
+                        LibraryException error = handleTransactionError(transaction, e, origin);
+                        event.end(TransactionEvent.ROLLBACK);
+                        throw error;
+                    }
+                    rollback(transaction);
+                    event.end(TransactionEvent.RETRY);
+                }
+            }
+            TransactionRetry.backoff(attempt);
+        }
+    }
+
+    // Read-only work. Nothing loaded here is dirty-checked or written back
+    private <T> T inReadOnlySession(String origin, UnitOfWork<T> work) throws LibraryException {
+        return OperationMetrics.time(origin, () -> {
+            try (Session session = openSession(origin)) {
+                session.setDefaultReadOnly(true);
+                return work.execute(session);
+            } catch (IllegalStateException | PersistenceException e) {
+                throw new LibraryException(FAILED, "Error while reading data for " + origin + " operation", e);
+            }
+        });
+    }
+
+    // The SessionFactory is built in the background and may have failed. That is reported as
+    // a failure of the operation, not thrown as an IllegalStateException past the callers
+    private Session openSession(String origin) throws LibraryException {
+        try {
+            return HibernateUtil.openSession();
+        } catch (IllegalStateException e) {
+            throw new LibraryException(FAILED, "The database is not available for the " + origin + " operation", e);
+        }
+    }
+
+    private StatelessSession openStatelessSession(String origin) throws LibraryException {
+        try {
+            return HibernateUtil.getSessionFactory().openStatelessSession();
+        } catch (IllegalStateException e) {
+            throw new LibraryException(FAILED, "The database is not available for the " + origin + " operation", e);
+        }
+    }
+
+    private LibraryException handleTransactionError(Transaction transaction, Exception e, String origin) {
+        rollback(transaction);
+        if (e instanceof ConstraintViolationException) {
+            return new LibraryException(CONFLICT, "The " + origin + " conflicts with existing data", e);
+        }
+        System.err.println("Error during the " + origin + " transaction. Rolled back: " + e.getMessage());
+        return new LibraryException(FAILED, "Error during the transaction for " + origin + " operation", e);
+    }
+
+    private void rollback(Transaction transaction) {
+        if (transaction.isActive()) {
+            transaction.rollback();
+        }
+    }
+
+    // Runs every read path once with keys that match nothing, so the first real request
+    // does not pay for opening pool connections, compiling HQL and preparing statements
+    public void warmUp() {
+        try {
+            findUser("AAA0");
+            findBook("0000000000000");
+            lendsByYear(1);
+            openLendsByUser("AAA0");
+        } catch (LibraryException e) {
+            System.err.println("Warmup failed: " + e.getMessage());
+        }
+    }
+
+    // Lookups
+    public User findUser(String userCode) throws LibraryException {
+        return inReadOnlySession("find user", session -> selectUser(session, userCode));
+    }
+
+    public Book findBook(String isbn) throws LibraryException {
+        return inReadOnlySession("find book", session -> selectBook(session, isbn));
+    }
+
+    // Users go through the query cache and then the entity cache; books are found by their
+    // id (the ISBN) straight in the entity cache. Either way a repeated lookup does not reach
+    // the database until the row changes or the entry expires. Books skip the query cache
+    // because every lend and return writes libros, and that invalidates every cached query
+    // on the table, while the entity cache only replaces the entry of the book that changed
+    // Every query is also recorded as a QueryEvent for Flight Recorder
+    private User selectUser(Session session, String userCode) {
+        QueryEvent event = QueryEvent.begin(User.BY_CODE);
+        User user = session.createNamedQuery(User.BY_CODE, User.class)
+                .setParameter("userCode", userCode)
+                .setReadOnly(true)
+                .setCacheable(true)
+                .setMaxResults(1)
+                .uniqueResult();
+        event.end(user == null ? 0 : 1);
+        return user;
+    }
+
+    private Book selectBook(Session session, String isbn) {
+        return isbn == null ? null : session.find(Book.class, isbn);
+    }
+
+    // SELECT ... FOR UPDATE, past the cache: the stock read here is the latest committed one
+    // and no other lend or return can change it until this transaction ends. Taken before
+    // anything else of the book is loaded into the session, so what is read is not stale
+    private Book lockBook(Session session, String isbn) throws LibraryException {
+        Book book = isbn == null ? null : session.find(Book.class, isbn, LockModeType.PESSIMISTIC_WRITE);
+        if (book == null) {
+            throw new LibraryException(NOT_FOUND, "The book does not exist");
+        }
+        return book;
+    }
+
+    private User requireUser(Session session, String userCode) throws LibraryException {
+        User user = selectUser(session, userCode);
+        if (user == null) {
+            throw new LibraryException(NOT_FOUND, "The user does not exist");
+        }
+        return user;
+    }
+
+    private Book requireBook(Session session, String isbn) throws LibraryException {
+        Book book = selectBook(session, isbn);
+        if (book == null) {
+            throw new LibraryException(NOT_FOUND, "The book does not exist");
+        }
+        return book;
+    }
+
+    // Catalog
+    public User addUser(String code, String name, String surname, LocalDate dateOfBirth) throws LibraryException {
+        if (dateOfBirth == null || !validationUtil.isValidUser(code, name, surname, dateOfBirth.toString())) {
+            throw new LibraryException(INVALID_INPUT, "Invalid user data");
+        }
+        return inTransaction("user", session -> {
+            if (selectUser(session, code) != null) {
+                throw new LibraryException(CONFLICT, "User already exists");
+            }
+            User user = new User();
+            user.setCodigo(code);
+            user.setNombre(name);
+            user.setApellidos(surname);
+            user.setFechanacimiento(dateOfBirth);
+            session.persist(user);
+            CacheInvalidationBus.publish(session, CacheInvalidationBus.INSERT, User.class, code);
+            return user;
+        });
+    }
+
+    public Book addBook(String isbn, String title, int copies, String publisher) throws LibraryException {
+        if (!validationUtil.isValidBook(isbn, title, publisher)) {
+            throw new LibraryException(INVALID_INPUT, "Invalid book data");
+        }
+        return inTransaction("book", session -> {
+            if (selectBook(session, isbn) != null) {
+                throw new LibraryException(CONFLICT, "Book already exists");
+            }
+            Book book = new Book();
+            book.setIsbn(isbn);
+            book.setTitulo(title);
+            // Same default as the column: a new book has at least one copy. All of them
+            // on the shelf
+            book.setCopias(copies > 0 ? copies : 1);
+            book.setEjemplares(book.getCopias());
+            book.setEditorial(publisher);
+            session.persist(book);
+            CacheInvalidationBus.publish(session, CacheInvalidationBus.INSERT, Book.class, isbn);
+            return book;
+        });
+    }
+
+    // Circulation
+    // The whole lend is one unit of work: the lookups, the stock change and the new
+    // lend row share one session and are committed (or rolled back) together
+    public LendView lend(String userCode, String isbn, LocalDate from, LocalDate to) throws LibraryException {
+        if (from == null) {
+            throw new LibraryException(INVALID_INPUT, "The lend date is mandatory");
+        }
+        if (to != null && to.isBefore(from)) {
+            throw new LibraryException(INVALID_INPUT, "The return date cannot be before the lend date");
+        }
+        return inTransaction("lend", session -> {
+            User user = requireUser(session, userCode);
+            Book book = lockBook(session, isbn);
+            if (isUserInPossessionOfBook(session, user, LocalDate.now(), book)) {
+                throw new LibraryException(CONFLICT, "The user already has this book in possession");
+            }
+            if (!reserveBookCopy(session, book)) {
+                throw new LibraryException(UNAVAILABLE, "There are no copies of this book left to lend");
+            }
+            Lend lend = new Lend();
+            lend.setLibro(book);
+            lend.setUsuario(user);
+            lend.setFechaprestamo(from);
+            lend.setFechadevolucion(to);
+            session.persist(lend); // The pooled-lo generator gives it its id here, no flush needed
+            return LendView.from(lend);
+        });
+    }
+
+    public LendView returnBook(String userCode, String isbn) throws LibraryException {
+        return inTransaction("return book", session -> {
+            // Locked first, like lend() does: the open lend query below fetches the book too
+            Book book = lockBook(session, isbn);
+            Lend lend = selectOpenLend(session, userCode, isbn, LocalDate.now());
+            if (lend == null) {
+                throw new LibraryException(NOT_FOUND, "The given user does not have this book lent");
+            }
+            updateBookStock(session, book, 1);
+            // The lend is managed by this session, so the new end date is flushed on commit.
+            // A planned end date later than today is moved to today too: otherwise the lend
+            // would still count as open and StockReconciliationJob would take the copy again
+            lend.setFechadevolucion(LocalDate.now());
+            return LendView.from(lend);
+        });
+    }
+
+    // Whether the user could borrow the book right now: there is a copy left and the user
+    // does not already have one. Only a hint, lend() decides again atomically
+    public boolean isBookAvailable(String userCode, String isbn) throws LibraryException {
+        return inReadOnlySession("book availability", session -> {
+            User user = requireUser(session, userCode);
+            Book book = requireBook(session, isbn);
+            return book.getCopias() != null && book.getCopias() >= 1
+                    && !isUserInPossessionOfBook(session, user, LocalDate.now(), book);
+        });
+    }
+
+    private boolean isUserInPossessionOfBook(Session session, User givenUser, LocalDate currentDate, Book givenBook) {
+        // We specify that the HQL query result must be of type Long
+        // For some reason, Integer returns an exception
+        QueryEvent event = QueryEvent.begin(Lend.COUNT_OPEN_BY_USER_AND_BOOK);
+        Long count = session.createNamedQuery(Lend.COUNT_OPEN_BY_USER_AND_BOOK, Long.class)
+                .setParameter("givenUser", givenUser)
+                .setParameter("currentDate", currentDate)
+                .setParameter("givenBook", givenBook)
+                .setReadOnly(true)
+                .uniqueResult();
+        event.end(1);
+        return count >= 1;
+    }
+
+    // Returns the lend if the given user has that book. Lending never gives a user a
+    // second copy of the same book, so we are positive this is a unique result
+    private Lend selectOpenLend(Session session, String userCode, String isbn, LocalDate currentDate) {
+        // Not read-only: returning the book updates this lend's end date
+        QueryEvent event = QueryEvent.begin(Lend.OPEN_BY_USER_AND_BOOK);
+        Lend lend = session.createNamedQuery(Lend.OPEN_BY_USER_AND_BOOK, Lend.class)
+                .setParameter("isbn", isbn)
+                .setParameter("userCode", userCode)
+                .setParameter("currentDate", currentDate)
+                .setMaxResults(1)
+                .uniqueResult();
+        event.end(lend == null ? 0 : 1);
+        return lend;
+    }
+
+    // "Take one copy if there is any left", on the book locked by lockBook: two lends racing
+    // for the last copy are serialized on the row lock, and the second one finds none left.
+    // Both stock changes go through the managed entity: the flush updates that one row and
+    // the cache replaces only that book's entry at commit. An HQL bulk update would make
+    // Hibernate drop the whole Book region on every lend and return
+    private boolean reserveBookCopy(Session session, Book book) {
+        if (book.getCopias() == null || book.getCopias() < 1) {
+            return false;
+        }
+        updateBookStock(session, book, -1);
+        return true;
+    }
+
+    // Runs inside the caller's transaction, so the stock change is committed
+    // atomically with the lend (or return) that caused it
+    private void updateBookStock(Session session, Book book, int bookCopies) {
+        book.setCopias((book.getCopias() != null ? book.getCopias() : 0) + bookCopies);
+        CacheInvalidationBus.publish(session, CacheInvalidationBus.UPDATE, Book.class, book.getIsbn());
+    }
+
+    // Reports
+    // Lend listings are read with a forward-only cursor on a stateless session: rows are
+    // handed to the sink as they arrive, FETCH_SIZE at a time, and nothing is kept in a
+    // persistence context. Memory stays flat no matter how many lends match.
+    // Can be changed with -Dlibrary.fetchSize=<rows>
+    private static final int FETCH_SIZE = Integer.getInteger("library.fetchSize", 500);
+
+    // Half-open range [1st of January, 1st of January of the next year) on the bare column,
+    // so the lookup can use prestamos_fechaprestamo_idx instead of scanning the whole table
+    public long streamLendsByYear(int year, Consumer<LendView> sink) throws LibraryException {
+        LocalDate yearStart = LocalDate.of(year, 1, 1);
+        return streamLends("lends by year", Lend.VIEWS_BY_DATE_RANGE, sink, session ->
+                session.createNamedSelectionQuery(Lend.VIEWS_BY_DATE_RANGE, LendView.class)
+                        .setParameter("yearStart", yearStart)
+                        .setParameter("nextYearStart", yearStart.plusYears(1)));
+    }
+
+    // Criteria to know if a user has a book: if the return date > same day + 1
+    // So if the user returns a book beforehand, then that return date is updated to today's
+    // that way it won't show up again. Theoretically :)
+    public long streamOpenLendsByUser(String userCode, Consumer<LendView> sink) throws LibraryException {
+        LocalDate currentDate = LocalDate.now().plusDays(1);
+        return streamLends("lends by user", Lend.OPEN_VIEWS_BY_USER, sink, session ->
+                session.createNamedSelectionQuery(Lend.OPEN_VIEWS_BY_USER, LendView.class)
+                        .setParameter("userCode", userCode)
+                        .setParameter("currentDate", currentDate));
+    }
+
+    // Whole-list versions for callers that need all the rows at once (HTTP responses...)
+    public List<LendView> lendsByYear(int year) throws LibraryException {
+        List<LendView> lends = new ArrayList<>();
+        streamLendsByYear(year, lends::add);
+        return lends;
+    }
+
+    public List<LendView> openLendsByUser(String userCode) throws LibraryException {
+        List<LendView> lends = new ArrayList<>();
+        streamOpenLendsByUser(userCode, lends::add);
+        return lends;
+    }
+
+    private long streamLends(String origin, String queryName, Consumer<LendView> sink,
+                             Function<StatelessSession, SelectionQuery<LendView>> queryBuilder) throws LibraryException {
+        return OperationMetrics.time(origin, () -> {
+            try (StatelessSession session = openStatelessSession(origin)) {
+                // pgjdbc only honours the fetch size (a real cursor) inside a transaction
+                Transaction transaction = session.beginTransaction();
+                QueryEvent event = QueryEvent.begin(queryName);
+                try (ScrollableResults<LendView> rows = queryBuilder.apply(session)
+                        .setFetchSize(FETCH_SIZE)
+                        .setReadOnly(true)
+                        .scroll(ScrollMode.FORWARD_ONLY)) {
+                    long count = 0;
+                    while (rows.next()) {
+                        sink.accept(rows.get());
+                        count++;
+                    }
+                    event.end(count);
+                    transaction.commit();
+                    return count;
+                } catch (IllegalStateException | PersistenceException e) {
+                    rollback(transaction);
+                    throw new LibraryException(FAILED, "Error while reading data for " + origin + " operation", e);
+                }
+            }
+        });
+    }
+
+    // Gives every lend of the year to another user with a single UPDATE, without
+    // loading any of them. Returns how many lends were changed
+    public int reassignLendsOfYear(int year, String newUserCode) throws LibraryException {
+        LocalDate yearStart = LocalDate.of(year, 1, 1);
+        return inTransaction("change user", session -> {
+            User newUser = requireUser(session, newUserCode);
+            QueryEvent event = QueryEvent.begin(Lend.REASSIGN_BY_DATE_RANGE);
+            int updated = session.createNamedMutationQuery(Lend.REASSIGN_BY_DATE_RANGE)
+                    .setParameter("newUser", newUser)
+                    .setParameter("yearStart", yearStart)
+                    .setParameter("nextYearStart", yearStart.plusYears(1))
+                    .executeUpdate();
+            event.end(updated);
+            CacheInvalidationBus.publish(session, CacheInvalidationBus.UPDATE, Lend.class, CacheInvalidationBus.ALL);
+            return updated;
+        });
+    }
+
+    // Gives all the listed lends to another user with bulk UPDATEs, without loading or
+    // merging any lend. Large lists are sent in chunks so the IN list stays well under the
+    // driver's bind parameter limit; every chunk runs in the same transaction.
+    // Returns how many lends were changed
+    private static final int REASSIGN_CHUNK_SIZE = 1000;
+
+    public int reassignLends(List<Integer> lendIds, String newUserCode) throws LibraryException {
+        return inTransaction("change user", session -> {
+            User newUser = requireUser(session, newUserCode);
+            int updated = 0;
+            for (int from = 0; from < lendIds.size(); from += REASSIGN_CHUNK_SIZE) {
+                List<Integer> chunk = lendIds.subList(from, Math.min(from + REASSIGN_CHUNK_SIZE, lendIds.size()));
+                QueryEvent event = QueryEvent.begin(Lend.REASSIGN_BY_IDS);
+                int chunkUpdated = session.createNamedMutationQuery(Lend.REASSIGN_BY_IDS)
+                        .setParameter("newUser", newUser)
+                        .setParameterList("lendIds", chunk)
+                        .executeUpdate();
+                event.end(chunkUpdated);
+                updated += chunkUpdated;
+            }
+            CacheInvalidationBus.publish(session, CacheInvalidationBus.UPDATE, Lend.class, CacheInvalidationBus.ALL);
+            return updated;
+        });
+    }
+}
@@ -1,7 +1,39 @@
 package org.example;
 
+import java.util.Arrays;
+
 public class Main {
-    public static void main(String[] args) {
-        new MainMenu();
+    // No arguments starts the interactive menu. The rest are commands:
+    //   serve [port]                              HTTP/JSON front end
+    //   http-load <url> [concurrency] [requests]  load driver for the HTTP front end
+    //   migrate                                   apply the schema migrations in db/migration
+    //   import users|books|lends <file.csv>       bulk load through COPY
+    //   insert-bench [lends]                      lend insert throughput (rolled back)
+    //   lend-stress [copies] [maxThreads]         threads racing for one book, no copy lent twice
+    //   train                                     AppCDS training run (cds profile)
+    //   startup                                   boot and print the startup time
+    //   budget-check                              SQL statements per operation against their budgets
+    //   workload seed|run ...                     synthetic circulation load (see WorkloadGenerator)
+    //   reconcile-stock                           recompute the stock of every book now
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            new MainMenu();
+            return;
+        }
+        String[] commandArgs = Arrays.copyOfRange(args, 1, args.length);
+        switch (args[0]) {
+            case "serve" -> LibraryHttpServer.main(commandArgs);
+            case "http-load" -> HttpLoadDriver.main(commandArgs);
+            case "migrate" -> SchemaMigrations.main(commandArgs);
+            case "import" -> BulkImporter.main(commandArgs);
+            case "insert-bench" -> LendInsertBenchmark.main(commandArgs);
+            case "lend-stress" -> LendStressCheck.main(commandArgs);
+            case "train" -> TrainingRun.main(commandArgs);
+            case "startup" -> TrainingRun.startup();
+            case "budget-check" -> StatementBudgetCheck.main(commandArgs);
+            case "workload" -> WorkloadGenerator.main(commandArgs);
+            case "reconcile-stock" -> StockReconciliationJob.main(commandArgs);
+            default -> System.out.println("Unknown command: " + args[0]);
+        }
     }
-}
\ No newline at end of file
+}
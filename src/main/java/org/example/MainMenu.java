@@ -1,10 +1,14 @@
 package org.example;
 
+import java.lang.management.ManagementFactory;
+
 public class MainMenu {
     private final HibernateOperations hibernateOperations;
 
     public MainMenu() {
         this.hibernateOperations = new HibernateOperations();
+        // Time from JVM start to the first prompt, to keep an eye on startup cost
+        System.out.println("Started in " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms");
         System.out.println("Welcome to Library Manager 101!\n");
 
         mainMenuLoop();
@@ -0,0 +1,147 @@
+package org.example;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency histogram and SQL statement count of every LibraryService operation (the
+// "origin" names: lend, return book, lends by year...). Each one is published as an MXBean
+// the first time it runs, under org.example:type=Operation,name=<operation>, and printed
+// at shutdown.
+// Listings are timed until the last row is handed over, so they include the time spent
+// by whoever consumes them (printing to the console...)
+public class OperationMetrics {
+    private static final Map<String, OperationStats> OPERATIONS = new ConcurrentHashMap<>();
+
+    private OperationMetrics() {}
+
+    // An operation to be timed
+    @FunctionalInterface
+    public interface TimedCall<T> {
+        T execute() throws LibraryException;
+    }
+
+    public static <T> T time(String operation, TimedCall<T> call) throws LibraryException {
+        OperationStats stats = OPERATIONS.computeIfAbsent(operation, OperationMetrics::register);
+        long statements = StatementCounter.mark();
+        long start = System.nanoTime();
+        try {
+            T result = call.execute();
+            stats.record(System.nanoTime() - start, StatementCounter.since(statements));
+            return result;
+        } catch (LibraryException e) {
+            stats.record(System.nanoTime() - start, StatementCounter.since(statements));
+            if (e.getReason() == LibraryException.Reason.FAILED) stats.failed.increment();
+            else stats.rejected.increment();
+            throw e;
+        } catch (RuntimeException e) {
+            stats.record(System.nanoTime() - start, StatementCounter.since(statements));
+            stats.failed.increment();
+            throw e;
+        }
+    }
+
+    private static OperationStats register(String operation) {
+        OperationStats stats = new OperationStats();
+        try {
+            ObjectName name = new ObjectName("org.example:type=Operation,name=" + ObjectName.quote(operation));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(stats, name);
+        } catch (JMException e) {
+            System.err.println("Could not publish the metrics of " + operation + " over JMX: " + e.getMessage());
+        }
+        return stats;
+    }
+
+    public static String report() {
+        StringBuilder report = new StringBuilder("Operations (latency in ms):");
+        OPERATIONS.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> {
+                    OperationStats stats = entry.getValue();
+                    report.append(String.format(
+                            "%n      %-18s count=%d rejected=%d failed=%d p50=%.2f p99=%.2f p999=%.2f max=%.2f statements=%d maxStatements=%d",
+                            entry.getKey(), stats.getCount(), stats.getRejected(), stats.getFailed(),
+                            stats.getP50Micros() / 1000.0, stats.getP99Micros() / 1000.0,
+                            stats.getP999Micros() / 1000.0, stats.getMaxMicros() / 1000.0,
+                            stats.getStatements(), stats.getMaxStatements()));
+                });
+        return report.toString();
+    }
+
+    public static void printReport() {
+        System.out.println(report());
+    }
+
+    private static class OperationStats implements OperationStatsMXBean {
+        // Microseconds, 3 significant digits, grows as needed
+        private final Histogram latency = new ConcurrentHistogram(3);
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder statements = new LongAdder();
+        private final LongAccumulator maxStatements = new LongAccumulator(Math::max, 0);
+
+        private void record(long nanos, long statementCount) {
+            latency.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+            statements.add(statementCount);
+            maxStatements.accumulate(statementCount);
+        }
+
+        @Override
+        public long getCount() {
+            return latency.getTotalCount();
+        }
+
+        @Override
+        public long getRejected() {
+            return rejected.sum();
+        }
+
+        @Override
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        @Override
+        public long getStatements() {
+            return statements.sum();
+        }
+
+        @Override
+        public long getMaxStatements() {
+            return maxStatements.get();
+        }
+
+        @Override
+        public double getMeanMicros() {
+            return latency.getMean();
+        }
+
+        @Override
+        public long getP50Micros() {
+            return latency.getValueAtPercentile(50);
+        }
+
+        @Override
+        public long getP99Micros() {
+            return latency.getValueAtPercentile(99);
+        }
+
+        @Override
+        public long getP999Micros() {
+            return latency.getValueAtPercentile(99.9);
+        }
+
+        @Override
+        public long getMaxMicros() {
+            return latency.getMaxValue();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.example;
+
+// What jconsole (or any JMX client) shows for each LibraryService operation, under
+// org.example:type=Operation,name=<operation>. Latencies in microseconds
+public interface OperationStatsMXBean {
+    long getCount();
+
+    // Turned down by a business rule (unknown user, no copies left...)
+    long getRejected();
+
+    // Ended with an error
+    long getFailed();
+
+    // SQL statements sent by all calls, and by the call that sent the most
+    long getStatements();
+
+    long getMaxStatements();
+
+    double getMeanMicros();
+
+    long getP50Micros();
+
+    long getP99Micros();
+
+    long getP999Micros();
+
+    long getMaxMicros();
+}
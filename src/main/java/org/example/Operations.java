@@ -10,7 +10,7 @@ public interface Operations {
 
     void printLendByYear() throws ExitException;
 
-    void changeUserByLend(List<Lend> lendList) throws ExitException;
+    void changeUserByLend(List<LendView> lendList) throws ExitException;
 
     void printBookByUserLend() throws ExitException;
 }
\ No newline at end of file
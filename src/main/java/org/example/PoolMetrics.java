@@ -0,0 +1,103 @@
+package org.example;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Runtime view of the connection pool. HikariCP calls back here every time a connection
+// is borrowed, returned or times out; the pool sizes come from its own PoolStats
+public class PoolMetrics implements MetricsTrackerFactory {
+    private volatile PoolStats poolStats;
+
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder totalUsageMillis = new LongAdder();
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolStats = poolStats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquisitions.increment();
+                totalWaitNanos.add(elapsedAcquiredNanos);
+                maxWaitNanos.accumulate(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                totalUsageMillis.add(elapsedBorrowedMillis);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        };
+    }
+
+    public int getActiveConnections() {
+        return poolStats == null ? 0 : poolStats.getActiveConnections();
+    }
+
+    public int getIdleConnections() {
+        return poolStats == null ? 0 : poolStats.getIdleConnections();
+    }
+
+    public int getTotalConnections() {
+        return poolStats == null ? 0 : poolStats.getTotalConnections();
+    }
+
+    public int getMaxConnections() {
+        return poolStats == null ? 0 : poolStats.getMaxConnections();
+    }
+
+    // Threads currently blocked waiting for a free connection
+    public int getPendingThreads() {
+        return poolStats == null ? 0 : poolStats.getPendingThreads();
+    }
+
+    // Share of the maximum pool size that is borrowed right now (0.0 - 1.0)
+    public double getSaturation() {
+        int max = getMaxConnections();
+        return max == 0 ? 0.0 : (double) getActiveConnections() / max;
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = acquisitions.sum();
+        return count == 0 ? 0.0 : (double) TimeUnit.NANOSECONDS.toMicros(totalWaitNanos.sum()) / count / 1000.0;
+    }
+
+    public double getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()) / 1000.0;
+    }
+
+    public double getAverageUsageMillis() {
+        long count = acquisitions.sum();
+        return count == 0 ? 0.0 : (double) totalUsageMillis.sum() / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "Pool: active=%d idle=%d total=%d max=%d pending=%d saturation=%.0f%%%n" +
+                "      acquisitions=%d timeouts=%d avgWait=%.3fms maxWait=%.3fms avgUsage=%.1fms",
+                getActiveConnections(), getIdleConnections(), getTotalConnections(), getMaxConnections(),
+                getPendingThreads(), getSaturation() * 100,
+                getAcquisitions(), getTimeouts(), getAverageWaitMillis(), getMaxWaitMillis(), getAverageUsageMillis());
+    }
+}
@@ -0,0 +1,35 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// One named query run by LibraryService, from the call until its results are read
+@Name("org.example.Query")
+@Label("Query")
+@Description("Named HQL query executed by the library service")
+@Category({"Library", "Hibernate"})
+@StackTrace(false)
+public class QueryEvent extends jdk.jfr.Event {
+    @Label("Query Name")
+    String queryName;
+
+    @Label("Rows")
+    @Description("Rows returned, or changed by an UPDATE")
+    long rows;
+
+    public static QueryEvent begin(String queryName) {
+        QueryEvent event = new QueryEvent();
+        event.queryName = queryName;
+        event.begin();
+        return event;
+    }
+
+    // Only written if the event is enabled in the recording and above its threshold
+    public void end(long rows) {
+        this.rows = rows;
+        commit();
+    }
+}
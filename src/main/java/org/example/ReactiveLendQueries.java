@@ -0,0 +1,81 @@
+package org.example;
+
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.reactive.provider.ReactiveServiceRegistryBuilder;
+import org.hibernate.reactive.stage.Stage;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+// Non-blocking alternative to LibraryService for the read paths with the most traffic:
+// lends by year, open lends by user and the availability check done before lending.
+// It reuses the same entity mappings through Hibernate Reactive, which talks to Postgres
+// with the Vert.x client: a handful of event-loop threads multiplex every query, and no
+// thread is parked on a socket while the database works.
+//
+// It has its own small connection pool (-Dlibrary.reactive.poolSize, default 10) and
+// never touches the schema. Close it to release the event loops.
+public class ReactiveLendQueries implements AutoCloseable {
+    private final Stage.SessionFactory sessionFactory;
+
+    public ReactiveLendQueries() {
+        Configuration configuration = HibernateUtil.loadConfiguration();
+        configuration.setProperty(AvailableSettings.HBM2DDL_AUTO, "none");
+        // Stateless reads never use the second-level cache, and sharing the JCache manager
+        // with the blocking SessionFactory would close it under its feet
+        configuration.setProperty(AvailableSettings.USE_SECOND_LEVEL_CACHE, "false");
+        configuration.setProperty(AvailableSettings.USE_QUERY_CACHE, "false");
+        configuration.setProperty(AvailableSettings.POOL_SIZE, System.getProperty("library.reactive.poolSize", "10"));
+
+        StandardServiceRegistry registry = new ReactiveServiceRegistryBuilder()
+                .applySettings(configuration.getProperties())
+                .build();
+        this.sessionFactory = configuration.buildSessionFactory(registry).unwrap(Stage.SessionFactory.class);
+    }
+
+    // Same named queries as LibraryService: only the columns of a LendView are read
+    public CompletionStage<List<LendView>> lendsByYear(int year) {
+        LocalDate yearStart = LocalDate.of(year, 1, 1);
+        return sessionFactory.withStatelessSession(session ->
+                session.createNamedQuery(Lend.VIEWS_BY_DATE_RANGE, LendView.class)
+                        .setParameter("yearStart", yearStart)
+                        .setParameter("nextYearStart", yearStart.plusYears(1))
+                        .getResultList());
+    }
+
+    // Same criteria as LibraryService.openLendsByUser: return date after tomorrow or none
+    public CompletionStage<List<LendView>> openLendsByUser(String userCode) {
+        LocalDate currentDate = LocalDate.now().plusDays(1);
+        return sessionFactory.withStatelessSession(session ->
+                session.createNamedQuery(Lend.OPEN_VIEWS_BY_USER, LendView.class)
+                        .setParameter("userCode", userCode)
+                        .setParameter("currentDate", currentDate)
+                        .getResultList());
+    }
+
+    // Same answer as LibraryService.isBookAvailable, in one round trip. Completes with null
+    // (404) if the book or the user does not exist, where the blocking one says NOT_FOUND
+    public CompletionStage<Boolean> isBookAvailable(String userCode, String isbn) {
+        LocalDate currentDate = LocalDate.now();
+        return sessionFactory.withStatelessSession(session ->
+                session.createNamedQuery(Book.AVAILABILITY_FOR_USER, Object[].class)
+                        .setParameter("userCode", userCode)
+                        .setParameter("currentDate", currentDate)
+                        .setParameter("isbn", isbn)
+                        .getSingleResultOrNull()
+                        .thenApply(row -> {
+                            if (row == null || (Long) row[2] == 0) return null;
+                            Integer copies = (Integer) row[0];
+                            Long openLends = (Long) row[1];
+                            return copies != null && copies >= 1 && openLends == 0;
+                        }));
+    }
+
+    @Override
+    public void close() {
+        sessionFactory.close();
+    }
+}
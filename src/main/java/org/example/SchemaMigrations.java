@@ -0,0 +1,37 @@
+package org.example;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.output.MigrateResult;
+import org.hibernate.cfg.AvailableSettings;
+
+import java.util.Properties;
+
+// Applies the versioned SQL scripts in src/main/resources/db/migration (V<n>__<what>.sql).
+// The program itself no longer touches the schema at startup, so run this after pulling
+// a version that adds a script:
+//
+//   migrate
+//
+// It uses the connection settings of hibernate.cfg.xml (and -Dhibernate.* overrides) but
+// does not build a SessionFactory. A database created by the old hbm2ddl=update is taken
+// as version 1 the first time, so only the later scripts run on it.
+public class SchemaMigrations {
+    public static void main(String[] args) {
+        Properties settings = HibernateUtil.loadConfiguration().getProperties();
+        Flyway flyway = Flyway.configure()
+                .dataSource(
+                        settings.getProperty(AvailableSettings.URL),
+                        settings.getProperty(AvailableSettings.USER),
+                        settings.getProperty(AvailableSettings.PASS))
+                .locations("classpath:db/migration")
+                .baselineOnMigrate(true)
+                .baselineVersion("1")
+                .load();
+
+        long start = System.nanoTime();
+        MigrateResult result = flyway.migrate();
+        System.out.printf("Schema at version %s, %d migrations applied in %d ms%n",
+                result.targetSchemaVersion != null ? result.targetSchemaVersion : result.initialSchemaVersion,
+                result.migrationsExecuted, (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -0,0 +1,26 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// From the opening of a Hibernate session (stateful or stateless) to its close. Recorded
+// by JfrSessionListener
+@Name("org.example.Session")
+@Label("Hibernate Session")
+@Description("Lifetime of a Hibernate session")
+@Category({"Library", "Hibernate"})
+@StackTrace(false)
+public class SessionEvent extends jdk.jfr.Event {
+    @Label("Statements")
+    @Description("JDBC statements executed in the session")
+    int statements;
+
+    @Label("Successful Transactions")
+    int commits;
+
+    @Label("Failed Transactions")
+    int rollbacks;
+}
@@ -0,0 +1,127 @@
+package org.example;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Runs each service operation behind the menu against the local database and counts the
+// SQL statements it sends (StatementCounter). If any operation goes over its budget, or the
+// lend listings stop being one query whatever the number of rows, it exits with status 1.
+// StatementBudgetIT runs the same check against a throwaway Postgres in mvn verify wherever
+// Docker is available, so a changed mapping (an eager association, a collection touched in
+// a loop...) fails the build as N+1 statements before it ships.
+//
+//   budget-check
+//
+// Caches are emptied before every measured call, so the counts are the cold worst case.
+// Its book and users are created here and removed afterwards, like its lends
+public class StatementBudgetCheck {
+    private static final String USER_CODE = "SBC1";
+    private static final String OTHER_USER_CODE = "SBC2";
+    private static final String ISBN = "9999999999998";
+    // One year with a single lend, another with many: the listing must cost the same
+    private static final int SMALL_YEAR = 1901;
+    private static final int LARGE_YEAR = 1902;
+    private static final int LARGE_YEAR_LENDS = 50;
+
+    // Most statements each operation may send. The lend allows one more for the sequence
+    // call that starts a new block of ids
+    private static final Map<String, Long> BUDGETS = new LinkedHashMap<>();
+    static {
+        BUDGETS.put("addNewUser", 2L);          // lookup + insert
+        BUDGETS.put("addNewBook", 2L);          // lookup + insert
+        BUDGETS.put("isBookAvailable", 3L);     // user + book + open lend count
+        BUDGETS.put("addNewLend", 6L);          // user + locked book + open lend count + stock + insert (+ sequence)
+        BUDGETS.put("returnBook", 4L);          // locked book + open lend + stock + end date
+        BUDGETS.put("printLendByYear", 1L);     // one projection query
+        BUDGETS.put("changeUserByLend", 2L);    // user + one UPDATE per chunk of ids
+        BUDGETS.put("changeUserByYear", 2L);    // user + one UPDATE
+        BUDGETS.put("printBookByUserLend", 1L); // one projection query
+    }
+    // With -Dlibrary.cache.bus=true these also send their transaction's pg_notify
+    private static final Set<String> NOTIFYING = Set.of(
+            "addNewUser", "addNewBook", "addNewLend", "returnBook", "changeUserByLend", "changeUserByYear");
+
+    private final LibraryService libraryService = new LibraryService();
+    private final Map<String, Long> measured = new LinkedHashMap<>();
+    private final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) {
+        boolean passed;
+        try {
+            passed = new StatementBudgetCheck().check().isEmpty();
+        } catch (LibraryException e) {
+            System.err.println("Statement budget check could not run: " + e.getMessage());
+            passed = false;
+        } finally {
+            HibernateUtil.closeSessionFactory();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    // Returns what went over budget, empty if nothing did
+    List<String> check() throws LibraryException {
+        TestDataUtil.removeTestData(ISBN, List.of(USER_CODE, OTHER_USER_CODE));
+        try {
+            measureOperations();
+        } finally {
+            TestDataUtil.removeTestData(ISBN, List.of(USER_CODE, OTHER_USER_CODE));
+        }
+
+        System.out.println("Statements per operation (budget):");
+        measured.forEach((operation, statements) ->
+                System.out.printf("  %-20s %3d (%d)%n", operation, statements, budget(operation)));
+        measured.forEach((operation, statements) -> {
+            if (statements > budget(operation)) {
+                failures.add(operation + " sent " + statements + " statements, budget is " + budget(operation));
+            }
+        });
+        failures.forEach(failure -> System.err.println("OVER BUDGET: " + failure));
+        return failures;
+    }
+
+    private long budget(String operation) {
+        return BUDGETS.get(operation) + (CacheInvalidationBus.ENABLED && NOTIFYING.contains(operation) ? 1 : 0);
+    }
+
+    private void measureOperations() throws LibraryException {
+        LocalDate smallYear = LocalDate.of(SMALL_YEAR, 1, 1);
+        LocalDate largeYear = LocalDate.of(LARGE_YEAR, 1, 1);
+
+        measure("addNewUser", () -> libraryService.addUser(USER_CODE, "Budget", "Check", smallYear));
+        libraryService.addUser(OTHER_USER_CODE, "Budget", "Check", smallYear);
+        measure("addNewBook", () -> libraryService.addBook(ISBN, "Budget Check", LARGE_YEAR_LENDS + 10, "Budget"));
+        measure("isBookAvailable", () -> libraryService.isBookAvailable(USER_CODE, ISBN));
+
+        // Closed lends (returned the next day), so the same user can borrow the book again
+        LendView lend = measure("addNewLend", () -> libraryService.lend(USER_CODE, ISBN, smallYear, smallYear.plusDays(1)));
+        for (int i = 0; i < LARGE_YEAR_LENDS; i++) {
+            libraryService.lend(USER_CODE, ISBN, largeYear, largeYear.plusDays(1));
+        }
+        libraryService.lend(OTHER_USER_CODE, ISBN, smallYear, null);
+        measure("returnBook", () -> libraryService.returnBook(OTHER_USER_CODE, ISBN));
+
+        long small = measure("printLendByYear", () -> libraryService.streamLendsByYear(SMALL_YEAR, view -> {}));
+        long statementsSmall = measured.get("printLendByYear");
+        long large = measure("printLendByYear", () -> libraryService.streamLendsByYear(LARGE_YEAR, view -> {}));
+        if (measured.get("printLendByYear") != statementsSmall) {
+            failures.add("printLendByYear sent " + statementsSmall + " statements for " + small + " lends and "
+                    + measured.get("printLendByYear") + " for " + large);
+        }
+
+        measure("changeUserByLend", () -> libraryService.reassignLends(List.of(lend.id()), OTHER_USER_CODE));
+        measure("changeUserByYear", () -> libraryService.reassignLendsOfYear(LARGE_YEAR, OTHER_USER_CODE));
+        measure("printBookByUserLend", () -> libraryService.streamOpenLendsByUser(USER_CODE, view -> {}));
+    }
+
+    private <T> T measure(String operation, OperationMetrics.TimedCall<T> call) throws LibraryException {
+        HibernateUtil.getSessionFactory().getCache().evictAllRegions();
+        long mark = StatementCounter.mark();
+        T result = call.execute();
+        measured.put(operation, StatementCounter.since(mark));
+        return result;
+    }
+}
@@ -0,0 +1,32 @@
+package org.example;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+// Counts the SQL statements Hibernate sends from each thread (registered as the statement
+// inspector in hibernate.cfg.xml). OperationMetrics uses it to know how many statements
+// every operation issues, and StatementBudgetCheck to catch N+1 regressions.
+// JDBC run by hand (doWork, the bulk importer) is not counted unless it calls count()
+public class StatementCounter implements StatementInspector {
+    private static final ThreadLocal<long[]> STATEMENTS = ThreadLocal.withInitial(() -> new long[1]);
+
+    @Override
+    public String inspect(String sql) {
+        STATEMENTS.get()[0]++;
+        return sql;
+    }
+
+    // For statements sent past Hibernate on the thread's behalf, like the cache bus message
+    public static void count() {
+        STATEMENTS.get()[0]++;
+    }
+
+    // Statements sent by this thread so far. The difference between two marks is what
+    // was sent in between, nested measurements included
+    public static long mark() {
+        return STATEMENTS.get()[0];
+    }
+
+    public static long since(long mark) {
+        return STATEMENTS.get()[0] - mark;
+    }
+}
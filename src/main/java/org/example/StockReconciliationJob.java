@@ -0,0 +1,175 @@
+package org.example;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Recomputes the copies on the shelf of every book once a day: copias = ejemplares (copies
+// owned) - open lends, in one UPDATE. Lends whose end date has passed give their copy back
+// here, and any drift left by failed or manual changes is corrected.
+//
+// Runs every day at -Dlibrary.stock.reconcileAt=HH:mm (03:00 by default, "off" disables it),
+// local time. Every node schedules it; a transaction-level advisory lock makes sure two
+// runs never overlap: a node that finds one in progress skips its own. The lock is gone at
+// commit, so a node whose clock is behind may run it again later that day, which only
+// recomputes the same numbers. Also on demand:
+//
+//   reconcile-stock
+public class StockReconciliationJob {
+    private static final String RECONCILE_AT = System.getProperty("library.stock.reconcileAt", "03:00");
+    // Key of the advisory lock, the same on every node
+    private static final long LOCK_KEY = 0x6C6962726F73L; // "libros"
+
+    // Open lends of every book. Only the books whose stock is wrong are locked and written
+    private static final String OPEN_LENDS =
+            "SELECT l.isbn, COUNT(p.id) AS lends " +
+            "FROM libros l " +
+            "LEFT JOIN prestamos p ON p.libro = l.isbn " +
+                "AND " + Lend.openSql("p") + " " +
+            "GROUP BY l.isbn";
+    private static final String LOCK_DRIFTED =
+            "SELECT b.isbn FROM libros b " +
+            "JOIN (" + OPEN_LENDS + ") o ON o.isbn = b.isbn " +
+            "WHERE b.copias IS DISTINCT FROM GREATEST(b.ejemplares - o.lends, 0) " +
+            "ORDER BY b.isbn " +
+            "FOR UPDATE OF b";
+    private static final String RECONCILE =
+            "UPDATE libros b " +
+            "SET copias = GREATEST(b.ejemplares - o.lends, 0) " +
+            "FROM (" + OPEN_LENDS + ") o " +
+            "WHERE b.isbn = o.isbn AND b.isbn = ANY (?) " +
+            "AND b.copias IS DISTINCT FROM GREATEST(b.ejemplares - o.lends, 0)";
+
+    private static ScheduledExecutorService scheduler;
+
+    private StockReconciliationJob() {}
+
+    public static void main(String[] args) {
+        try {
+            reconcile();
+        } finally {
+            HibernateUtil.closeSessionFactory();
+        }
+    }
+
+    public static synchronized void start() {
+        if (scheduler != null || RECONCILE_AT.equalsIgnoreCase("off")) return;
+        LocalTime at;
+        try {
+            at = LocalTime.parse(RECONCILE_AT);
+        } catch (DateTimeParseException e) {
+            // A typo in the setting must not keep the console or the server from starting
+            System.err.println("Invalid library.stock.reconcileAt \"" + RECONCILE_AT
+                    + "\" (expected HH:mm), stock reconciliation disabled");
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("stock-reconciliation").daemon(true).factory());
+        scheduleNext(at);
+        System.out.println("Stock reconciliation scheduled every day at " + at);
+    }
+
+    public static synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    // One run at a time, scheduled after the previous one: the delay is worked out from the
+    // wall clock every day, so daylight saving changes do not move the time
+    private static synchronized void scheduleNext(LocalTime at) {
+        if (scheduler == null) return; // Stopped meanwhile
+        ZonedDateTime now = ZonedDateTime.now();
+        ZonedDateTime next = now.toLocalDate().atTime(at).atZone(now.getZone());
+        if (!next.isAfter(now)) {
+            next = next.plusDays(1);
+        }
+        scheduler.schedule(() -> {
+            try {
+                reconcile();
+            } catch (RuntimeException e) {
+                // Not thrown out of the task: the executor would keep it to itself
+                System.err.println("Stock reconciliation failed: " + e);
+            } finally {
+                scheduleNext(at);
+            }
+        }, Duration.between(now, next).toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Returns how many books were corrected, or -1 if it did not run
+    public static int reconcile() {
+        long start = System.nanoTime();
+        try (Connection connection = HibernateUtil.getDataSource().getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                if (!tryLock(connection)) {
+                    connection.rollback();
+                    System.out.println("Stock reconciliation already running elsewhere, skipped");
+                    return -1;
+                }
+                // Row locks on the books to correct, the same ones lend() and returnBook() take
+                // first. A lend or return of one of them in flight is waited for, new ones wait
+                // until the commit, and the UPDATE, which reads the lends again, counts every
+                // one committed before it. Without them, a lend committed while the UPDATE
+                // runs would not be in its count and its copy would be put back on the shelf.
+                // Taken in ISBN order; lends and returns hold a single book, so no deadlock
+                JdbcUtil.execute(connection, "SET LOCAL lock_timeout = '10s'");
+                List<String> drifted = lockDrifted(connection);
+                int corrected = drifted.isEmpty() ? 0 : correct(connection, drifted);
+                CacheInvalidationBus.publish(connection, drifted.stream()
+                        .map(isbn -> CacheInvalidationBus.change(CacheInvalidationBus.UPDATE, Book.class, isbn))
+                        .toArray(String[]::new));
+                connection.commit();
+                // Written past Hibernate: only the cached copies of the corrected books are stale
+                drifted.forEach(isbn -> HibernateUtil.getSessionFactory().getCache().evictEntityData(Book.class, isbn));
+                System.out.printf("Stock reconciliation: %d books corrected in %.0f ms%n",
+                        corrected, (System.nanoTime() - start) / 1e6);
+                return corrected;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.err.println("Stock reconciliation failed: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    // Released by the commit or rollback, even if the node dies halfway
+    private static boolean tryLock(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet row = statement.executeQuery("SELECT pg_try_advisory_xact_lock(" + LOCK_KEY + ")")) {
+            return row.next() && row.getBoolean(1);
+        }
+    }
+
+    private static List<String> lockDrifted(Connection connection) throws SQLException {
+        List<String> isbns = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery(LOCK_DRIFTED)) {
+            while (rows.next()) {
+                isbns.add(rows.getString(1));
+            }
+        }
+        return isbns;
+    }
+
+    private static int correct(Connection connection, List<String> isbns) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(RECONCILE)) {
+            statement.setArray(1, connection.createArrayOf("varchar", isbns.toArray()));
+            return statement.executeUpdate();
+        }
+    }
+}
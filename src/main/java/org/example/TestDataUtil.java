@@ -0,0 +1,29 @@
+package org.example;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import java.util.List;
+
+// Data of the self-checking commands (lend-stress, budget-check, train): each one creates
+// a book and some users of its own and removes them, with their lends, before and after
+final class TestDataUtil {
+    private TestDataUtil() {}
+
+    static void removeTestData(String isbn, List<String> userCodes) {
+        try (Session session = HibernateUtil.openSession()) {
+            Transaction transaction = session.beginTransaction();
+            session.createMutationQuery("DELETE FROM Lend l WHERE l.libro.isbn = :isbn OR l.usuario.codigo IN :codes")
+                    .setParameter("isbn", isbn)
+                    .setParameterList("codes", userCodes)
+                    .executeUpdate();
+            session.createMutationQuery("DELETE FROM Book b WHERE b.isbn = :isbn")
+                    .setParameter("isbn", isbn)
+                    .executeUpdate();
+            session.createMutationQuery("DELETE FROM User u WHERE u.codigo IN :codes")
+                    .setParameterList("codes", userCodes)
+                    .executeUpdate();
+            transaction.commit();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+
+// Goes through every operation of the menu once with its own user and book, typing the
+// answers of SCRIPT into the console, so the classes that load are the ones a real session
+// loads (HibernateOperations, ScannerCreator, ValidationUtil... not only the service).
+// Its test book and users are dropped before and after. Meant for the AppCDS training run
+// of the "cds" profile (mvn -Pcds package): the JVM records every class loaded on the way
+// and dumps them into the archive that scripts/library.sh starts with. Needs the local
+// database.
+//
+//   train     the training run
+//   startup   boot, open a session and print the time since JVM start (scripts/measure_startup.sh)
+public class TrainingRun {
+    private static final String USER_CODE = "CDS1";
+    private static final String OTHER_USER_CODE = "CDS2";
+    private static final String ISBN = "9999999999999";
+    // Lends go in a year far from any real report
+    private static final int YEAR = 1900;
+    // The console only lists the years from 1924 on. Read only: the change of user is declined
+    private static final int LISTED_YEAR = 1924;
+
+    // What a user would type, one operation per block. Each operation first drops the rest
+    // of the menu line, hence the empty line that opens every block
+    private static final String SCRIPT = String.join("\n",
+            // addNewUser, twice
+            "", USER_CODE, "Training", "Run", YEAR + "-01-01",
+            "", OTHER_USER_CODE, "Training", "Run", YEAR + "-01-01",
+            // addNewBook
+            "", ISBN, "Training Run", "2", "Training",
+            // addNewLend: not from today, no end date. Then returnBook, and a lend that stays open
+            "", USER_CODE, "n", YEAR + "-01-01", "n", ISBN,
+            "", USER_CODE, ISBN,
+            "", OTHER_USER_CODE, "n", YEAR + "-01-01", "n", ISBN,
+            // printBookByUserLend
+            "", OTHER_USER_CODE,
+            // printLendByYear. Last: with no lends that year it does not ask about the change
+            // of user, and the "no" is left unread
+            "", String.valueOf(LISTED_YEAR), "no") + "\n";
+
+    public static void main(String[] args) throws LibraryException, ExitException {
+        // Before ScannerCreator is loaded: its scanner reads System.in as it is then
+        System.setIn(new ByteArrayInputStream(SCRIPT.getBytes(StandardCharsets.UTF_8)));
+        LibraryService libraryService = new LibraryService();
+        // Starts the bootstrap in the background, as the menu does
+        HibernateOperations hibernateOperations = new HibernateOperations(libraryService);
+        try {
+            TestDataUtil.removeTestData(ISBN, List.of(USER_CODE, OTHER_USER_CODE)); // Leftovers of a run that did not finish
+            try {
+                train(hibernateOperations, libraryService);
+            } finally {
+                TestDataUtil.removeTestData(ISBN, List.of(USER_CODE, OTHER_USER_CODE));
+            }
+            System.out.println("Training run finished in " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms");
+        } finally {
+            hibernateOperations.closeHibernate();
+        }
+    }
+
+    public static void startup() {
+        try {
+            HibernateUtil.openSession().close();
+            System.out.println("Ready in " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms");
+        } finally {
+            HibernateUtil.closeSessionFactory();
+        }
+    }
+
+    // An ExitException out of here means SCRIPT no longer matches the questions of the
+    // console, and fails the build
+    private static void train(HibernateOperations hibernateOperations, LibraryService libraryService)
+            throws LibraryException, ExitException {
+        hibernateOperations.addNewUser();
+        hibernateOperations.addNewUser();
+        hibernateOperations.addNewBook();
+        hibernateOperations.addNewLend();
+        hibernateOperations.returnBook();
+        hibernateOperations.addNewLend();
+        hibernateOperations.printBookByUserLend();
+        hibernateOperations.printLendByYear();
+
+        // Out of reach of the script: the listing mode is fixed for the whole JVM, and the
+        // change of user can only be typed for a listed year, whose real lends it would move
+        List<LendView> lends = libraryService.lendsByYear(YEAR);
+        libraryService.openLendsByUser(OTHER_USER_CODE);
+        libraryService.streamLendsByYear(YEAR, view -> {});
+        libraryService.reassignLends(lends.stream().map(LendView::id).toList(), USER_CODE);
+        libraryService.reassignLendsOfYear(YEAR, OTHER_USER_CODE);
+        lends.forEach(LendView::toString);
+    }
+}
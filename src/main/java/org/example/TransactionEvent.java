@@ -0,0 +1,42 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// One attempt of a LibraryService transaction, from begin to commit or rollback
+@Name("org.example.Transaction")
+@Label("Transaction")
+@Description("Transaction of a library operation")
+@Category({"Library", "Hibernate"})
+@StackTrace(false)
+public class TransactionEvent extends jdk.jfr.Event {
+    public static final String COMMIT = "commit";
+    public static final String ROLLBACK = "rollback";
+    // Rolled back after a concurrency conflict, another attempt follows
+    public static final String RETRY = "retry";
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Attempt")
+    int attempt;
+
+    @Label("Outcome")
+    String outcome;
+
+    public static TransactionEvent begin(String operation, int attempt) {
+        TransactionEvent event = new TransactionEvent();
+        event.operation = operation;
+        event.attempt = attempt;
+        event.begin();
+        return event;
+    }
+
+    public void end(String outcome) {
+        this.outcome = outcome;
+        commit();
+    }
+}
@@ -0,0 +1,58 @@
+package org.example;
+
+import jakarta.persistence.OptimisticLockException;
+import org.hibernate.PessimisticLockException;
+import org.hibernate.StaleStateException;
+import org.hibernate.exception.LockAcquisitionException;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Utility class that decides whether a failed transaction is worth another try. Only
+// concurrency conflicts qualify (deadlocks, lock timeouts, serialization failures and
+// stale versions); anything else is a real error and must reach the user
+public class TransactionRetry {
+    // Can be changed with -Dlibrary.tx.maxAttempts=<n>
+    public static final int MAX_ATTEMPTS = Math.max(1, Integer.getInteger("library.tx.maxAttempts", 3));
+
+    private static final String SERIALIZATION_FAILURE = "40001";
+    private static final String DEADLOCK_DETECTED = "40P01";
+    private static final String LOCK_NOT_AVAILABLE = "55P03";
+
+    private TransactionRetry() {}
+
+    public static boolean isRetryable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof LockAcquisitionException
+                    || cause instanceof PessimisticLockException
+                    || cause instanceof OptimisticLockException
+                    || cause instanceof StaleStateException) {
+                return true;
+            }
+            if (cause instanceof SQLException sqlException) {
+                String state = sqlException.getSQLState();
+                if (SERIALIZATION_FAILURE.equals(state)
+                        || DEADLOCK_DETECTED.equals(state)
+                        || LOCK_NOT_AVAILABLE.equals(state)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Should the attempt that just failed with this exception be repeated?
+    public static boolean shouldRetry(int attempt, Throwable e) {
+        return attempt < MAX_ATTEMPTS && isRetryable(e);
+    }
+
+    // Randomized exponential backoff so the competing transactions don't collide again
+    public static void backoff(int attempt) {
+        long maxDelay = 10L << Math.min(attempt, 6);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(1, maxDelay + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
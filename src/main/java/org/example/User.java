@@ -1,16 +1,23 @@
 package org.example;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.time.LocalDate;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE) // Region "org.example.User" in ehcache.xml
 @Table(name = "usuarios")
+// Named queries are checked and compiled when the SessionFactory is built
+@NamedQuery(name = User.BY_CODE, query = "FROM User u WHERE u.codigo = :userCode")
 public class User {
+    public static final String BY_CODE = "User.byCode";
+
     @Id
-    @SequenceGenerator(name = "usuarios_id_gen", sequenceName = "prestamos_id_seq", allocationSize = 1)
     @Column(name = "codigo", nullable = false, length = 8)
     private String codigo;
 
@@ -0,0 +1,325 @@
+package org.example;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Synthetic circulation load on the local database, through LibraryService like the menu
+// and the HTTP front end:
+//
+//   workload seed <users> <books> <lends>   workload data: users WLD<n>, books 001<n padded
+//                                           to 10>, closed lends over the last year
+//   workload run <seconds> [concurrency]    lend/return/report mix from virtual threads
+//
+// Book popularity follows a Zipf law (exponent -Dlibrary.workload.zipf, default 1.0): a few
+// books take most of the lends, run out of copies and are fought over, like the new
+// releases of a real library. Every virtual thread is a reader at the desk, one operation
+// after another: borrows a book, gives back one that is out (the day's lends come back the
+// same day), checks availability, looks at its lends or runs the report of a year.
+//
+// At the end: throughput, latency percentiles, conflict and error rates per operation, the
+// connection pool usage, and a check that no copy was lent twice
+public class WorkloadGenerator {
+    private static final String USER_PREFIX = "WLD";
+    private static final String ISBN_PREFIX = "001";
+    private static final double ZIPF_EXPONENT = Double.parseDouble(System.getProperty("library.workload.zipf", "1.0"));
+
+    // Share of each operation in the mix, in percent
+    private static final int LEND = 40;
+    private static final int RETURN = 40;
+    private static final int AVAILABILITY = 10;
+    private static final int USER_LENDS = 7;
+    // The rest, lends of a year
+
+    private static final String OPEN_LENDS =
+            "SELECT usuario, libro FROM prestamos " +
+            "WHERE usuario LIKE '" + USER_PREFIX + "%' AND " + Lend.openSql("prestamos");
+    // Copies on the shelf plus copies out: whatever lends and returns do, it does not change
+    private static final String TOTAL_COPIES =
+            "SELECT (SELECT COALESCE(SUM(copias), 0) FROM libros WHERE isbn LIKE '" + ISBN_PREFIX + "%') + " +
+            "(SELECT COUNT(*) FROM prestamos WHERE libro LIKE '" + ISBN_PREFIX + "%' " +
+                "AND " + Lend.openSql("prestamos") + ")";
+
+    private final LibraryService libraryService = new LibraryService();
+    private final Map<String, OperationResults> results = new LinkedHashMap<>();
+    // Lends made and not yet returned (user code, isbn), taken by the returns
+    private final Queue<String[]> openLends = new ConcurrentLinkedQueue<>();
+    private int users;
+    private double[] popularity;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: workload seed <users> <books> <lends> | workload run <seconds> [concurrency]");
+            return;
+        }
+        try {
+            WorkloadGenerator generator = new WorkloadGenerator();
+            switch (args[0]) {
+                case "seed" -> generator.seed(Integer.parseInt(args[1]),
+                        args.length > 2 ? Integer.parseInt(args[2]) : 5_000,
+                        args.length > 3 ? Integer.parseInt(args[3]) : 1_000_000);
+                case "run" -> generator.run(Integer.parseInt(args[1]),
+                        args.length > 2 ? Integer.parseInt(args[2]) : 200);
+                default -> System.out.println("Unknown workload command: " + args[0]);
+            }
+        } finally {
+            HibernateUtil.closeSessionFactory();
+        }
+    }
+
+    // Replaces any earlier workload data. Runs in the database with generate_series
+    private void seed(int users, int books, int lends) throws SQLException {
+        if (users > 99_999) {
+            throw new IllegalArgumentException("User codes allow at most 99999 users");
+        }
+        System.out.printf("Seeding %d users, %d books and %d lends...%n", users, books, lends);
+        long start = System.nanoTime();
+        try (Connection connection = HibernateUtil.getDataSource().getConnection()) {
+            connection.setAutoCommit(false);
+            JdbcUtil.execute(connection, "DELETE FROM prestamos WHERE usuario LIKE '" + USER_PREFIX + "%' OR libro LIKE '" + ISBN_PREFIX + "%'");
+            JdbcUtil.execute(connection, "DELETE FROM usuarios WHERE codigo LIKE '" + USER_PREFIX + "%'");
+            JdbcUtil.execute(connection, "DELETE FROM libros WHERE isbn LIKE '" + ISBN_PREFIX + "%'");
+
+            JdbcUtil.execute(connection,
+                    "INSERT INTO usuarios (codigo, nombre, apellidos, fechanacimiento) " +
+                    "SELECT '" + USER_PREFIX + "' || g, 'Workload', 'Reader', DATE '1950-01-01' + g % 20000 " +
+                    "FROM generate_series(1, " + users + ") g");
+            // Between 2 and 5 copies, so the popular ones run out
+            JdbcUtil.execute(connection,
+                    "INSERT INTO libros (isbn, titulo, copias, ejemplares, editorial) " +
+                    "SELECT '" + ISBN_PREFIX + "' || lpad(g::text, 10, '0'), 'Workload Book ' || g, 2 + g % 4, 2 + g % 4, 'Workload' " +
+                    "FROM generate_series(1, " + books + ") g");
+
+            // History of the last year, all returned. floor(books ^ random()) gives book k a
+            // share close to 1/k, the same popularity the run uses with the default exponent.
+            // Ids in blocks of the sequence increment, as in BulkImporter
+            int increment = BulkImporter.sequenceIncrement(connection);
+            JdbcUtil.execute(connection,
+                    "WITH blocks AS MATERIALIZED (" +
+                        "SELECT block, nextval('prestamos_id_seq') AS first_id " +
+                        "FROM generate_series(0, (" + lends + " + " + increment + " - 1) / " + increment + " - 1) block) " +
+                    "INSERT INTO prestamos (id, fechaprestamo, fechadevolucion, libro, usuario) " +
+                    "SELECT b.first_id + n % " + increment + ", d, d + 14, " +
+                        "'" + ISBN_PREFIX + "' || lpad(LEAST(" + books + ", floor(power(" + books + " + 1, random())))::int::text, 10, '0'), " +
+                        "'" + USER_PREFIX + "' || (1 + (n::bigint * 7919) % " + users + ") " +
+                    "FROM generate_series(0, " + lends + " - 1) n " +
+                    "JOIN blocks b ON b.block = n / " + increment + ", " +
+                    "LATERAL (SELECT CURRENT_DATE - 365 + (n % 335)::int AS d) dates");
+            CacheInvalidationBus.publish(connection,
+                    CacheInvalidationBus.change(CacheInvalidationBus.INSERT, User.class, CacheInvalidationBus.ALL),
+                    CacheInvalidationBus.change(CacheInvalidationBus.INSERT, Book.class, CacheInvalidationBus.ALL),
+                    CacheInvalidationBus.change(CacheInvalidationBus.INSERT, Lend.class, CacheInvalidationBus.ALL));
+            connection.commit();
+
+            connection.setAutoCommit(true);
+            JdbcUtil.execute(connection, "ANALYZE usuarios");
+            JdbcUtil.execute(connection, "ANALYZE libros");
+            JdbcUtil.execute(connection, "ANALYZE prestamos");
+        }
+        // Earlier workload users and books may still be cached under the same keys
+        HibernateUtil.evictAfterPlainSql(User.class, Book.class);
+        System.out.printf("Seeded in %.1f s%n", (System.nanoTime() - start) / 1e9);
+    }
+
+    private void run(int seconds, int concurrency) throws Exception {
+        int books;
+        long copiesBefore;
+        try (Connection connection = HibernateUtil.getDataSource().getConnection()) {
+            users = (int) JdbcUtil.count(connection, "SELECT COUNT(*) FROM usuarios WHERE codigo LIKE '" + USER_PREFIX + "%'");
+            books = (int) JdbcUtil.count(connection, "SELECT COUNT(*) FROM libros WHERE isbn LIKE '" + ISBN_PREFIX + "%'");
+            if (users == 0 || books == 0) {
+                System.out.println("No workload data, run: workload seed <users> <books> <lends>");
+                return;
+            }
+            copiesBefore = JdbcUtil.count(connection, TOTAL_COPIES);
+            // Lends left out by an earlier run come back first
+            try (Statement statement = connection.createStatement();
+                 ResultSet rows = statement.executeQuery(OPEN_LENDS)) {
+                while (rows.next()) {
+                    openLends.add(new String[] {rows.getString(1), rows.getString(2)});
+                }
+            }
+        }
+        popularity = zipf(books, ZIPF_EXPONENT);
+        for (String operation : new String[] {"lend", "return", "availability", "user lends", "lends by year"}) {
+            results.put(operation, new OperationResults());
+        }
+        System.out.printf("%d users, %d books (zipf %.2f), %d lends out. %d readers for %d s...%n",
+                users, books, ZIPF_EXPONENT, openLends.size(), concurrency, seconds);
+
+        PoolSampler pool = new PoolSampler();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(pool::sample, 0, 100, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(seconds);
+        try (ExecutorService readers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < concurrency; i++) {
+                readers.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        nextOperation();
+                    }
+                });
+            }
+        } // Past the deadline, once the last operation of every reader is done
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        sampler.shutdownNow();
+
+        long total = results.values().stream().mapToLong(OperationResults::count).sum();
+        System.out.printf("%d operations in %.1f s: %.1f ops/s%n", total, elapsed, total / elapsed);
+        System.out.println("Operation      count    ops/s  conflicts  errors   p50 ms   p99 ms  p999 ms   max ms");
+        results.forEach((operation, result) -> result.print(operation, elapsed));
+        pool.print();
+
+        try (Connection connection = HibernateUtil.getDataSource().getConnection()) {
+            long negative = JdbcUtil.count(connection, "SELECT COUNT(*) FROM libros WHERE isbn LIKE '" + ISBN_PREFIX + "%' AND copias < 0");
+            long copiesAfter = JdbcUtil.count(connection, TOTAL_COPIES);
+            System.out.printf("Stock: %d copies before, %d after (shelf + out), %d books below zero: %s%n",
+                    copiesBefore, copiesAfter, negative,
+                    negative == 0 && copiesBefore == copiesAfter ? "OK" : "INCONSISTENT");
+        }
+    }
+
+    private void nextOperation() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String userCode = USER_PREFIX + (1 + random.nextInt(users));
+        int dice = random.nextInt(100);
+        if (dice < RETURN) {
+            String[] lend = openLends.poll();
+            if (lend != null) {
+                if (!execute("return", () -> libraryService.returnBook(lend[0], lend[1]))) {
+                    openLends.add(lend);
+                }
+                return;
+            }
+            // Nothing out yet, lend instead
+        }
+        if (dice < RETURN + LEND) {
+            String isbn = popularBook(random);
+            if (execute("lend", () -> libraryService.lend(userCode, isbn, LocalDate.now(), null))) {
+                openLends.add(new String[] {userCode, isbn});
+            }
+        } else if (dice < RETURN + LEND + AVAILABILITY) {
+            execute("availability", () -> libraryService.isBookAvailable(userCode, popularBook(random)));
+        } else if (dice < RETURN + LEND + AVAILABILITY + USER_LENDS) {
+            execute("user lends", () -> libraryService.streamOpenLendsByUser(userCode, view -> {}));
+        } else {
+            int year = LocalDate.now().getYear() - random.nextInt(2);
+            execute("lends by year", () -> libraryService.streamLendsByYear(year, view -> {}));
+        }
+    }
+
+    // Whether the operation went through. A lend refused for lack of copies, or of a book
+    // the reader already has, is a conflict; anything the database refused is an error
+    private boolean execute(String operation, OperationMetrics.TimedCall<?> call) {
+        OperationResults result = results.get(operation);
+        long start = System.nanoTime();
+        try {
+            call.execute();
+            return true;
+        } catch (LibraryException e) {
+            switch (e.getReason()) {
+                case CONFLICT, UNAVAILABLE -> result.conflicts.increment();
+                case FAILED -> result.errors.increment();
+                default -> {} // A lend returned by hand meanwhile, nothing to count
+            }
+            return false;
+        } catch (RuntimeException e) {
+            result.errors.increment();
+            return false;
+        } finally {
+            result.latency.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        }
+    }
+
+    private String popularBook(ThreadLocalRandom random) {
+        int index = Arrays.binarySearch(popularity, random.nextDouble());
+        int rank = index >= 0 ? index : Math.min(-index - 1, popularity.length - 1);
+        return ISBN_PREFIX + String.format("%010d", rank + 1);
+    }
+
+    // Cumulative distribution of the Zipf law over the books: book k (rank k - 1) is taken
+    // with a probability proportional to 1 / k^exponent
+    private static double[] zipf(int books, double exponent) {
+        double[] cumulative = new double[books];
+        double sum = 0;
+        for (int k = 1; k <= books; k++) {
+            sum += 1 / Math.pow(k, exponent);
+            cumulative[k - 1] = sum;
+        }
+        for (int i = 0; i < books; i++) {
+            cumulative[i] /= sum;
+        }
+        return cumulative;
+    }
+
+    private static class OperationResults {
+        // In microseconds, printed in milliseconds; the readers record into it concurrently
+        private final Histogram latency = new ConcurrentHistogram(3);
+        private final LongAdder conflicts = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        private long count() {
+            return latency.getTotalCount();
+        }
+
+        private void print(String operation, double seconds) {
+            long count = count();
+            System.out.printf("%-13s %6d %8.1f %9.2f%% %6.2f%% %8.2f %8.2f %8.2f %8.2f%n",
+                    operation, count, count / seconds,
+                    percent(conflicts.sum(), count), percent(errors.sum(), count),
+                    latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(99) / 1000.0,
+                    latency.getValueAtPercentile(99.9) / 1000.0, latency.getMaxValue() / 1000.0);
+        }
+
+        private static double percent(long part, long count) {
+            return count == 0 ? 0.0 : 100.0 * part / count;
+        }
+    }
+
+    // Connections in use and threads waiting for one, sampled while the load runs. Waits
+    // and timeouts come from PoolMetrics itself
+    private static class PoolSampler {
+        private final PoolMetrics metrics = HibernateUtil.getPoolMetrics();
+        private final LongAdder samples = new LongAdder();
+        private final LongAdder activeSum = new LongAdder();
+        private final LongAccumulator maxActive = new LongAccumulator(Math::max, 0);
+        private final LongAccumulator maxPending = new LongAccumulator(Math::max, 0);
+        private final long acquisitionsBefore = metrics.getAcquisitions();
+        private final long timeoutsBefore = metrics.getTimeouts();
+
+        private void sample() {
+            int active = metrics.getActiveConnections();
+            samples.increment();
+            activeSum.add(active);
+            maxActive.accumulate(active);
+            maxPending.accumulate(metrics.getPendingThreads());
+        }
+
+        private void print() {
+            long count = Math.max(1, samples.sum());
+            System.out.printf("Connections: max pool %d, active avg %.1f max %d, waiting threads max %d%n",
+                    metrics.getMaxConnections(), (double) activeSum.sum() / count, maxActive.get(), maxPending.get());
+            System.out.printf("             %d acquisitions, %d timeouts, wait avg %.3f ms max %.3f ms, held avg %.1f ms%n",
+                    metrics.getAcquisitions() - acquisitionsBefore, metrics.getTimeouts() - timeoutsBefore,
+                    metrics.getAverageWaitMillis(), metrics.getMaxWaitMillis(), metrics.getAverageUsageMillis());
+        }
+    }
+}
@@ -0,0 +1,29 @@
+-- Schema as it was when hbm2ddl=update stopped managing it. Databases that already have
+-- these tables are baselined at this version and skip it (see SchemaMigrations)
+
+CREATE TABLE usuarios (
+    codigo          varchar(8)  NOT NULL PRIMARY KEY,
+    nombre          varchar(25) NOT NULL,
+    apellidos       varchar(25) NOT NULL,
+    fechanacimiento date
+);
+
+CREATE TABLE libros (
+    isbn      varchar(13) NOT NULL PRIMARY KEY,
+    titulo    varchar(90) NOT NULL,
+    copias    integer DEFAULT 1,
+    editorial varchar(60)
+);
+
+CREATE TABLE prestamos (
+    id              serial      NOT NULL PRIMARY KEY,
+    fechaprestamo   date        NOT NULL,
+    fechadevolucion date,
+    libro           varchar(13) NOT NULL REFERENCES libros (isbn) ON DELETE CASCADE,
+    usuario         varchar(8)  NOT NULL REFERENCES usuarios (codigo) ON DELETE CASCADE
+);
+
+-- Year reports: range scan on the lend date
+CREATE INDEX prestamos_fechaprestamo_idx ON prestamos (fechaprestamo);
+-- Open lends of a user: equality on the user, then the return date
+CREATE INDEX prestamos_usuario_fechadevolucion_idx ON prestamos (usuario, fechadevolucion);
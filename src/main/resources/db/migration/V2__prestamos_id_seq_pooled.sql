@@ -0,0 +1,7 @@
+-- Lend ids come in pooled-lo blocks of 50 (Lend.ID_BLOCK_SIZE): the sequence has to advance
+-- by the same amount. Later changes of the block size: scripts/prestamos_id_seq_pooled.sql
+
+SELECT setval('prestamos_id_seq',
+              GREATEST((SELECT COALESCE(MAX(id), 0) FROM prestamos),
+                       (SELECT last_value FROM prestamos_id_seq)));
+ALTER SEQUENCE prestamos_id_seq INCREMENT BY 50;
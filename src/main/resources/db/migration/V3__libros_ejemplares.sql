@@ -0,0 +1,13 @@
+-- Copies owned of each book, lent or not. copias stays the number on the shelf; the daily
+-- stock reconciliation (StockReconciliationJob) recomputes it as ejemplares - open lends.
+-- Same "open" as LibraryService.returnBook
+
+ALTER TABLE libros ADD COLUMN ejemplares integer;
+
+UPDATE libros b
+SET ejemplares = COALESCE(b.copias, 0) + (
+    SELECT COUNT(*) FROM prestamos p
+    WHERE p.libro = b.isbn
+    AND (p.fechadevolucion > CURRENT_DATE OR p.fechadevolucion IS NULL));
+
+ALTER TABLE libros ALTER COLUMN ejemplares SET NOT NULL;
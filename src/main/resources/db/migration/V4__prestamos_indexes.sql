@@ -0,0 +1,8 @@
+-- The lend indexes declared on Lend, again. V1 creates them, but a database taken over from
+-- hbm2ddl=update is baselined at version 1 and never runs it, and may or may not have them.
+-- IF NOT EXISTS: a no-op wherever V1 or hbm2ddl already made them
+
+-- Year reports: range scan on the lend date
+CREATE INDEX IF NOT EXISTS prestamos_fechaprestamo_idx ON prestamos (fechaprestamo);
+-- Open lends of a user: equality on the user, then the return date
+CREATE INDEX IF NOT EXISTS prestamos_usuario_fechadevolucion_idx ON prestamos (usuario, fechadevolucion);
@@ -0,0 +1,102 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// The write routes of LibraryHttpServer on a Postgres started for the test: each one answers
+// on its exact path only, and the paths its context also receives (a trailing slash, a
+// longer name) get a 404 without writing anything
+@Testcontainers(disabledWithoutDocker = true)
+class LibraryHttpServerIT {
+    @Container
+    static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private static final HttpClient CLIENT = HttpClient.newHttpClient();
+    private static final LibraryService LIBRARY_SERVICE = new LibraryService();
+    private static LibraryHttpServer server;
+
+    @BeforeAll
+    static void start() throws IOException {
+        System.setProperty("hibernate.connection.url", POSTGRES.getJdbcUrl());
+        System.setProperty("hibernate.connection.username", POSTGRES.getUsername());
+        System.setProperty("hibernate.connection.password", POSTGRES.getPassword());
+        SchemaMigrations.main(new String[0]);
+        server = new LibraryHttpServer(LIBRARY_SERVICE, 0, LibraryHttpServer.createExecutor("virtual"));
+        server.start();
+    }
+
+    @AfterAll
+    static void stop() {
+        server.stop();
+        HibernateUtil.closeSessionFactory();
+    }
+
+    @Test
+    void createsBooksOnlyOnBooks() throws Exception {
+        assertEquals(404, post("/books/", book("9780000000011")));
+        assertEquals(404, post("/booksX", book("9780000000028")));
+        assertNull(LIBRARY_SERVICE.findBook("9780000000011"));
+        assertNull(LIBRARY_SERVICE.findBook("9780000000028"));
+
+        assertEquals(201, post("/books", book("9780000000035")));
+        assertNotNull(LIBRARY_SERVICE.findBook("9780000000035"));
+        assertEquals(409, post("/books", book("9780000000035")));
+    }
+
+    @Test
+    void createsUsersOnlyOnUsers() throws Exception {
+        assertEquals(404, post("/users/", user("HTA1")));
+        assertEquals(404, post("/usersX", user("HTA2")));
+        assertNull(LIBRARY_SERVICE.findUser("HTA1"));
+        assertNull(LIBRARY_SERVICE.findUser("HTA2"));
+
+        assertEquals(201, post("/users", user("HTA3")));
+        assertNotNull(LIBRARY_SERVICE.findUser("HTA3"));
+        assertEquals(409, post("/users", user("HTA3")));
+    }
+
+    @Test
+    void lendsAndReturnsABook() throws Exception {
+        assertEquals(201, post("/users", user("HTB1")));
+        assertEquals(201, post("/books", book("9780000000042")));
+        String lend = "{\"userCode\": \"HTB1\", \"isbn\": \"9780000000042\", \"from\": \"2024-01-01\"}";
+        String giveBack = "{\"userCode\": \"HTB1\", \"isbn\": \"9780000000042\"}";
+
+        assertEquals(404, post("/lends/", lend));
+        assertEquals(201, post("/lends", lend));
+        assertEquals(409, post("/lends", lend)); // The user already has it
+        assertEquals(404, post("/returns/", giveBack));
+        assertEquals(200, post("/returns", giveBack));
+        assertEquals(404, post("/returns", giveBack)); // Nothing left to return
+    }
+
+    private static String book(String isbn) {
+        return "{\"isbn\": \"" + isbn + "\", \"title\": \"Http Test\", \"copies\": 1, \"publisher\": \"Http\"}";
+    }
+
+    private static String user(String code) {
+        return "{\"code\": \"" + code + "\", \"name\": \"Http\", \"surname\": \"Test\", \"dateOfBirth\": \"1990-01-01\"}";
+    }
+
+    private static int post(String path, String json) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+        return CLIENT.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
@@ -0,0 +1,41 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// StatementBudgetCheck on a Postgres started for the test, with the schema built by the
+// Flyway migrations. Run by failsafe in mvn verify. Skipped where Docker is not available,
+// and with -DskipITs
+@Testcontainers(disabledWithoutDocker = true)
+class StatementBudgetIT {
+    @Container
+    static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @BeforeAll
+    static void pointToContainer() {
+        // Picked up as -Dhibernate.* overrides by HibernateUtil and SchemaMigrations
+        System.setProperty("hibernate.connection.url", POSTGRES.getJdbcUrl());
+        System.setProperty("hibernate.connection.username", POSTGRES.getUsername());
+        System.setProperty("hibernate.connection.password", POSTGRES.getPassword());
+        SchemaMigrations.main(new String[0]);
+    }
+
+    @AfterAll
+    static void close() {
+        HibernateUtil.closeSessionFactory();
+    }
+
+    @Test
+    void everyOperationStaysWithinItsStatementBudget() throws LibraryException {
+        List<String> overBudget = new StatementBudgetCheck().check();
+        assertEquals(List.of(), overBudget);
+    }
+}